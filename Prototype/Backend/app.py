@@ -336,6 +336,24 @@ def run_attack():
 # -----------------------------
 @app.route("/simblock_ingest", methods=["POST"])
 def simblock_ingest():
+    params = load_params()
+    base_delay = int(params.get("NETWORK_DELAY_MS", params.get("ATTACKER_NETWORK_DELAY_MS", DEFAULT_NETWORK_DELAY_MS)))
+
+    # SimBlock forwards batches of events as NDJSON, one JSON object per line
+    if "ndjson" in (request.content_type or ""):
+        count = 0
+        for line in request.data.decode("utf-8", errors="ignore").splitlines():
+            if not line.strip():
+                continue
+            try:
+                event = json.loads(line)
+            except Exception:
+                add_log("[SIMBLOCK] Received unparseable payload")
+                continue
+            ingest_event(event, base_delay)
+            count += 1
+        return jsonify({"status": "ok", "received": count})
+
     event = request.get_json(force=True, silent=True)
     if not event:
         raw = request.data.decode("utf-8", errors="ignore")
@@ -344,11 +362,12 @@ def simblock_ingest():
         except Exception:
             add_log("[SIMBLOCK] Received unparseable payload")
             return jsonify({"status": "error", "message": "unparseable payload"}), 400
+    return jsonify(ingest_event(event, base_delay))
+
 
+def ingest_event(event, base_delay):
     kind = event.get("kind","").lower()
     content = event.get("content",{}) or {}
-    params = load_params()
-    base_delay = int(params.get("NETWORK_DELAY_MS", params.get("ATTACKER_NETWORK_DELAY_MS", DEFAULT_NETWORK_DELAY_MS)))
 
     if kind == "add-tx":
         txid = content.get("tx-id") or content.get("txid") or content.get("id") or ""
@@ -370,7 +389,7 @@ def simblock_ingest():
             except Exception as e:
                 add_log(f"[SIMBLOCK-APPLY] Local apply failed: {e}")
         broadcast_to_peers("/api/tx", tx_payload, base_delay_ms=base_delay)
-        return jsonify({"status":"ok"})
+        return {"status":"ok"}
     elif kind == "add-block":
         add_log(f"[SIMBLOCK] Ingest add-block: {content}")
         block_payload = content.copy()
@@ -386,15 +405,15 @@ def simblock_ingest():
             except Exception as e:
                 add_log(f"[SIMBLOCK-APPLY] Local block apply failed: {e}")
         broadcast_to_peers("/block_gossip", block_payload, base_delay_ms=base_delay)
-        return jsonify({"status":"ok"})
+        return {"status":"ok"}
     elif kind in ("attack-log","attack_log"):
         msg = content.get("message") or content.get("msg") or str(content)
         add_log(f"[ATTACK-LOG] {msg}")
         broadcast_to_peers("/logs", {"forwarded_attack_log": msg}, base_delay_ms=base_delay)
-        return jsonify({"status":"ok"})
+        return {"status":"ok"}
     else:
         add_log(f"[SIMBLOCK] Unknown ingest: {event}")
-        return jsonify({"status":"ok","received":event})
+        return {"status":"ok","received":event}
 
 # -----------------------------
 # Auto-miner
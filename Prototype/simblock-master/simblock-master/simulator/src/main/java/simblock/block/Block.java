@@ -23,8 +23,15 @@ public class Block {
   /** The current height of the block. */
   private final int height;
 
-  /** The parent {@link Block}. */
-  private final Block parent;
+  /** The parent {@link Block}, null once the parent is pruned. */
+  private Block parent;
+
+  /**
+   * An ancestor further down the chain, at the height given by {@link #getSkipHeight(int)}, to
+   * find the ancestor at a given height in a logarithmic number of steps. Null once the ancestor
+   * is pruned.
+   */
+  private Block skip;
 
   /** The {@link Node} that minted the block. */
   private final Node minter;
@@ -38,6 +45,9 @@ public class Block {
   /** Latest known block id. */
   private static int latestId = 0;
 
+  /** The height below which the blocks are pruned, see {@link #setPrunedHeight(int)}. */
+  private static int prunedHeight = 0;
+
   /**
    * Instantiates a new Block.
    *
@@ -46,12 +56,87 @@ public class Block {
    * @param time the time
    */
   public Block(Block parent, Node minter, long time) {
+    this(parent, minter, time, nextId());
+  }
+
+  /**
+   * Instantiates a block with a known id, as when a process of a sharded simulation receives a
+   * block minted by another one.
+   *
+   * @param parent the parent
+   * @param minter the minter
+   * @param time the time
+   * @param id the id
+   */
+  protected Block(Block parent, Node minter, long time, int id) {
     this.height = parent == null ? 0 : parent.getHeight() + 1;
     this.parent = parent;
+    this.skip = parent == null ? null : parent.getBlockWithHeight(getSkipHeight(this.height));
     this.minter = minter;
     this.time = time;
-    this.id = latestId;
-    latestId++;
+    this.id = id;
+  }
+
+  /**
+   * Draws the id of a new block.
+   *
+   * @return the id
+   */
+  protected static int nextId() {
+    return latestId++;
+  }
+
+  /**
+   * Gets the id of the next block to be minted.
+   *
+   * @return the id
+   */
+  public static int getLatestId() {
+    return latestId;
+  }
+
+  /**
+   * Sets the id of the next block to be minted. The processes of a sharded simulation share the
+   * ids this way.
+   *
+   * @param id the id
+   */
+  public static void setLatestId(int id) {
+    latestId = id;
+  }
+
+  /**
+   * Gets the height below which the blocks are pruned.
+   *
+   * @return the height
+   */
+  public static int getPrunedHeight() {
+    return prunedHeight;
+  }
+
+  /**
+   * Sets the height below which the blocks are pruned: {@link #getBlockWithHeight(int)} no longer
+   * finds them, and new blocks do not point to them. The blocks at the height and above must be
+   * {@link #detachBelow(int) detached} from them for the pruned blocks to be collected.
+   *
+   * @param height the height
+   */
+  public static void setPrunedHeight(int height) {
+    prunedHeight = height;
+  }
+
+  /**
+   * Drops the references of the block to its ancestors below a height, the parent included.
+   *
+   * @param height the height
+   */
+  public void detachBelow(int height) {
+    if (this.parent != null && this.parent.height < height) {
+      this.parent = null;
+    }
+    if (this.skip != null && this.skip.height < height) {
+      this.skip = null;
+    }
   }
 
   /**
@@ -66,7 +151,7 @@ public class Block {
   /**
    * Get parent block.
    *
-   * @return the block
+   * @return the block, null for the genesis block or once the parent is pruned
    */
   public Block getParent() {
     return this.parent;
@@ -114,17 +199,97 @@ public class Block {
   }
 
   /**
-   * Recursively searches for the block at the provided height.
+   * Returns the class name and the id of the block. Unlike the identity hash code, the id is the
+   * same in every run and in every process of a sharded simulation.
+   *
+   * @return the string
+   */
+  @Override
+  public String toString() {
+    return this.getClass().getName() + "@" + Integer.toHexString(this.id);
+  }
+
+  /**
+   * Gets the height of the skip ancestor of a block, as Bitcoin Core does: the skip pointers of
+   * the blocks form a structure where any ancestor is reached in O(log height) steps.
+   *
+   * @param height the height of the block
+   * @return the height of the skip ancestor
+   */
+  private static int getSkipHeight(int height) {
+    if (height < 2) {
+      return 0;
+    }
+    return (height & 1) == 0
+        ? clearLowestBit(height)
+        : clearLowestBit(clearLowestBit(height - 1)) + 1;
+  }
+
+  private static int clearLowestBit(int n) {
+    return n & (n - 1);
+  }
+
+  /**
+   * Searches for the ancestor block at the provided height, following the skip pointers.
    *
    * @param height the height
-   * @return the block with the provided height
+   * @return the block with the provided height, or null if the height is above the height of the
+   *     block or below the pruned height
    */
   public Block getBlockWithHeight(int height) {
-    if (this.height == height) {
-      return this;
-    } else {
-      return this.parent.getBlockWithHeight(height);
+    if (height > this.height || height < prunedHeight) {
+      return null;
+    }
+    Block walk = this;
+    int heightWalk = this.height;
+    while (heightWalk > height) {
+      int heightSkip = getSkipHeight(heightWalk);
+      int heightSkipPrev = getSkipHeight(heightWalk - 1);
+      // Take the skip pointer unless it overshoots, or the one of the parent gets closer
+      if (walk.skip != null
+          && (heightSkip == height
+              || heightSkip > height
+                  && !(heightSkipPrev < heightSkip - 2 && heightSkipPrev >= height))) {
+        walk = walk.skip;
+        heightWalk = heightSkip;
+      } else {
+        walk = walk.parent;
+        heightWalk--;
+      }
+    }
+    return walk;
+  }
+
+  /**
+   * Searches for the most recent common ancestor of self and the provided block, as Bitcoin Core
+   * does: brings both to the same height, then walks them down in lockstep, following the skip
+   * pointers while they lead to different ancestors.
+   *
+   * @param block the other block
+   * @return the common ancestor, self or the provided block if one is an ancestor of the other, or
+   *     null if the block is null or they have no common ancestor above the pruned height
+   */
+  public Block getCommonAncestor(Block block) {
+    if (block == null) {
+      return null;
+    }
+    int height = Math.min(this.height, block.height);
+    Block walk = this.getBlockWithHeight(height);
+    Block other = block.getBlockWithHeight(height);
+    while (walk != other) {
+      if (walk == null || other == null) {
+        return null;
+      }
+      // Both are at the same height, so are their skip ancestors
+      if (walk.skip != other.skip && walk.skip != null && other.skip != null) {
+        walk = walk.skip;
+        other = other.skip;
+      } else {
+        walk = walk.parent;
+        other = other.parent;
+      }
     }
+    return walk == null || walk.height < prunedHeight ? null : walk;
   }
 
   /**
@@ -137,9 +302,9 @@ public class Block {
     if (block == null) {
       return false;
     } else if (this.height <= block.height) {
-      return this.equals(block.getBlockWithHeight(this.height));
+      return this == block.getBlockWithHeight(this.height);
     } else {
-      return this.getBlockWithHeight(block.height).equals(block);
+      return this.getBlockWithHeight(block.height) == block;
     }
   }
 }
@@ -19,11 +19,36 @@ package simblock.block;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 
-/** The type Coinage tracks the age of coins. */
+/**
+ * The type Coinage tracks the age of coins. The coins are whole units, held as a long while they
+ * are below {@link #LONG_BOUND} and as a {@link BigInteger} once they reach it, so that the
+ * results are exactly those of arbitrary precision arithmetic without its cost in the usual case.
+ */
 public class Coinage implements Cloneable {
-  private BigInteger coins;
+  /** The bound of the values held as longs, so that the sum of two does not overflow. */
+  static final long LONG_BOUND = 1L << 62;
+
+  /** The long value of a value reaching {@link #LONG_BOUND}. */
+  static final long OVERFLOW = Long.MIN_VALUE;
+
+  /** The coins, {@link #OVERFLOW} if they are held by {@link #bigCoins}. */
+  private long coins;
+
+  /** The coins, null while they are held as a long. */
+  private BigInteger bigCoins;
+
   private long age;
 
+  /**
+   * Instantiates a new Coinage.
+   *
+   * @param coins the coins
+   * @param age the age
+   */
+  public Coinage(long coins, long age) {
+    this(BigInteger.valueOf(coins), age);
+  }
+
   /**
    * Instantiates a new Coinage.
    *
@@ -31,16 +56,30 @@ public class Coinage implements Cloneable {
    * @param age the age
    */
   public Coinage(BigInteger coins, long age) {
-    this.coins = coins;
+    this.setCoins(coins);
     this.age = age;
   }
 
+  private void setCoins(BigInteger coins) {
+    this.coins = toLong(coins);
+    this.bigCoins = this.coins == OVERFLOW ? coins : null;
+  }
+
   /**
    * Gets coins.
    *
    * @return the coins
    */
   public BigInteger getCoins() {
+    return this.bigCoins == null ? BigInteger.valueOf(this.coins) : this.bigCoins;
+  }
+
+  /**
+   * Gets the coins as a long.
+   *
+   * @return the coins, {@link #OVERFLOW} if they reach {@link #LONG_BOUND}
+   */
+  long getCoinsValue() {
     return this.coins;
   }
 
@@ -64,14 +103,24 @@ public class Coinage implements Cloneable {
   }
 
   /**
-   * Reward gained for consensus maintenance.
+   * Reward gained for consensus maintenance: the coinage multiplied by the reward, truncated to
+   * whole coins.
    *
    * @param reward the reward
    */
   public void reward(double reward) {
-    this.coins =
-        this.coins.add(
-            new BigDecimal(this.getCoinage()).multiply(new BigDecimal(reward)).toBigInteger());
+    long coinage = multiply(this.coins, this.age);
+    long coins = add(this.coins, multiplyTruncated(coinage, reward));
+    if (coins != OVERFLOW) {
+      this.coins = coins;
+    } else {
+      this.setCoins(
+          this.getCoins()
+              .add(
+                  new BigDecimal(this.getCoinage())
+                      .multiply(new BigDecimal(reward))
+                      .toBigInteger()));
+    }
   }
 
   /**
@@ -81,7 +130,137 @@ public class Coinage implements Cloneable {
    */
   // TODO what is coin age
   public BigInteger getCoinage() {
-    return this.getCoins().multiply(BigInteger.valueOf(this.getAge()));
+    long coinage = multiply(this.coins, this.age);
+    return coinage == OVERFLOW
+        ? this.getCoins().multiply(BigInteger.valueOf(this.age))
+        : BigInteger.valueOf(coinage);
+  }
+
+  /**
+   * Gets coin age as a double.
+   *
+   * @return the coinage
+   */
+  public double getCoinageAsDouble() {
+    long coinage = multiply(this.coins, this.age);
+    return coinage == OVERFLOW ? this.getCoinage().doubleValue() : coinage;
+  }
+
+  /**
+   * Converts a value to a long.
+   *
+   * @param value the value
+   * @return the value, {@link #OVERFLOW} if it reaches {@link #LONG_BOUND}
+   */
+  static long toLong(BigInteger value) {
+    return value.bitLength() < 63 ? value.longValue() : OVERFLOW;
+  }
+
+  /**
+   * Adds two values held as longs.
+   *
+   * @param x the first value
+   * @param y the second value
+   * @return the sum, {@link #OVERFLOW} if either value is or the sum reaches {@link #LONG_BOUND}
+   */
+  static long add(long x, long y) {
+    if (x == OVERFLOW || y == OVERFLOW) {
+      return OVERFLOW;
+    }
+    // Both are below the bound, their sum does not overflow
+    long sum = x + y;
+    return Math.abs(sum) < LONG_BOUND ? sum : OVERFLOW;
+  }
+
+  /**
+   * Multiplies two values held as longs.
+   *
+   * @param x the first value
+   * @param y the second value
+   * @return the product, {@link #OVERFLOW} if either value is or the product reaches {@link
+   *     #LONG_BOUND}
+   */
+  static long multiply(long x, long y) {
+    if (x == OVERFLOW || y == OVERFLOW) {
+      return OVERFLOW;
+    }
+    long magnitude = Math.abs(x) * Math.abs(y);
+    if (multiplyHigh(Math.abs(x), Math.abs(y)) != 0 || magnitude < 0 || magnitude >= LONG_BOUND) {
+      return OVERFLOW;
+    }
+    return x * y;
+  }
+
+  /**
+   * Multiplies a value by the exact binary value of a double, the significand times a power of
+   * two, truncating the product toward zero.
+   *
+   * @param value the value held as a long
+   * @param factor the factor
+   * @return the truncated product, {@link #OVERFLOW} if the value is or the product reaches {@link
+   *     #LONG_BOUND}, or if the factor is not finite
+   */
+  static long multiplyTruncated(long value, double factor) {
+    if (value == OVERFLOW || Double.isNaN(factor) || Double.isInfinite(factor)) {
+      return OVERFLOW;
+    }
+    if (value == 0 || factor == 0) {
+      return 0;
+    }
+    long bits = Double.doubleToRawLongBits(factor);
+    int exponent = (int) (bits >>> 52) & 0x7ff;
+    long significand = bits & 0xfffffffffffffL;
+    if (exponent == 0) {
+      exponent = 1;
+    } else {
+      significand |= 1L << 52;
+    }
+    // |factor| = significand * 2^(exponent - 1075)
+    int shift = 1075 - exponent;
+    boolean negative = (value < 0) != (factor < 0);
+    long magnitude = Math.abs(value);
+    long product;
+    if (shift <= 0) {
+      if (shift <= -62) {
+        return OVERFLOW;
+      }
+      product = multiply(multiply(magnitude, significand), 1L << -shift);
+      if (product == OVERFLOW) {
+        return OVERFLOW;
+      }
+    } else {
+      long high = multiplyHigh(magnitude, significand);
+      long low = magnitude * significand;
+      if (shift >= 64) {
+        product = shift >= 127 ? 0 : high >>> (shift - 64);
+      } else if (high >>> shift != 0) {
+        return OVERFLOW;
+      } else {
+        product = (low >>> shift) | (high << (64 - shift));
+      }
+      if (product < 0 || product >= LONG_BOUND) {
+        return OVERFLOW;
+      }
+    }
+    return negative ? -product : product;
+  }
+
+  /**
+   * Gets the high 64 bits of the 128 bit product of two non-negative longs.
+   *
+   * @param x the first factor
+   * @param y the second factor
+   * @return the high bits of the product
+   */
+  private static long multiplyHigh(long x, long y) {
+    long x1 = x >>> 32;
+    long x2 = x & 0xffffffffL;
+    long y1 = y >>> 32;
+    long y2 = y & 0xffffffffL;
+    long low = x2 * y2;
+    long middle = x1 * y2 + (low >>> 32);
+    long cross = x2 * y1 + (middle & 0xffffffffL);
+    return x1 * y1 + (middle >>> 32) + (cross >>> 32);
   }
 
   @Override
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.block;
+
+import static simblock.block.Coinage.OVERFLOW;
+import static simblock.block.Coinage.add;
+import static simblock.block.Coinage.multiply;
+
+import java.math.BigInteger;
+
+/**
+ * The type Coinage ledger is the immutable coinage of every node at a block. A ledger is a
+ * persistent vector of 32-way nodes indexed by node: rewarding a minter copies the path to its
+ * entry only, and shares the rest with the ledger of the parent block.
+ *
+ * <p>The age of the coins of a node is not stored but derived from the height of the block and the
+ * height of the last block it minted, and the total coinage is kept as two sums updated with each
+ * reward. As in {@link Coinage}, the coins and the sums are held as longs until they reach {@link
+ * Coinage#LONG_BOUND}, and as {@link BigInteger BigIntegers} from then on.
+ */
+class CoinageLedger {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  /** The height of the last block minted by a node that has not minted, for an age of 1 at 0. */
+  private static final int NEVER_MINTED = -1;
+
+  /** The coins of a node and the height of the last block it minted. */
+  private static final class Entry {
+    /** The coins, {@link Coinage#OVERFLOW} if they are held by {@link #bigCoins}. */
+    private final long coins;
+
+    /** The coins, null while they are held as a long. */
+    private final BigInteger bigCoins;
+
+    private final int mintedHeight;
+
+    private Entry(Coinage coinage, int mintedHeight) {
+      this.coins = coinage.getCoinsValue();
+      this.bigCoins = this.coins == OVERFLOW ? coinage.getCoins() : null;
+      this.mintedHeight = mintedHeight;
+    }
+
+    private BigInteger getCoins() {
+      return this.bigCoins == null ? BigInteger.valueOf(this.coins) : this.bigCoins;
+    }
+
+    private Coinage getCoinage(int height) {
+      return this.bigCoins == null
+          ? new Coinage(this.coins, height - this.mintedHeight)
+          : new Coinage(this.bigCoins, height - this.mintedHeight);
+    }
+  }
+
+  /** The root node, whose children are nodes down to the leaves of entries. */
+  private final Object[] root;
+
+  /** The shift of the index of the root node. */
+  private final int shift;
+
+  /** The sum of the coins of all nodes, {@link Coinage#OVERFLOW} once the sums are BigIntegers. */
+  private final long totalCoins;
+
+  /**
+   * The sum of the coins of all nodes multiplied by the height of their last minted block, {@link
+   * Coinage#OVERFLOW} once the sums are BigIntegers.
+   */
+  private final long totalMintedCoins;
+
+  /** The sum of the coins of all nodes, null while the sums are longs. */
+  private final BigInteger bigTotalCoins;
+
+  /** The sum of the minted coins, null while the sums are longs. */
+  private final BigInteger bigTotalMintedCoins;
+
+  private CoinageLedger(Object[] root, int shift, long totalCoins, long totalMintedCoins) {
+    this.root = root;
+    this.shift = shift;
+    this.totalCoins = totalCoins;
+    this.totalMintedCoins = totalMintedCoins;
+    this.bigTotalCoins = null;
+    this.bigTotalMintedCoins = null;
+  }
+
+  private CoinageLedger(
+      Object[] root, int shift, BigInteger totalCoins, BigInteger totalMintedCoins) {
+    this.root = root;
+    this.shift = shift;
+    this.totalCoins = OVERFLOW;
+    this.totalMintedCoins = OVERFLOW;
+    this.bigTotalCoins = totalCoins;
+    this.bigTotalMintedCoins = totalMintedCoins;
+  }
+
+  /**
+   * Creates the ledger of the genesis block, where every coin has an age of 1.
+   *
+   * @param coins the coins by node index
+   * @return the ledger
+   */
+  static CoinageLedger genesis(long[] coins) {
+    int shift = 0;
+    while ((long) WIDTH << shift < coins.length) {
+      shift += BITS;
+    }
+    long totalCoins = 0;
+    BigInteger bigTotalCoins = BigInteger.ZERO;
+    for (long c : coins) {
+      totalCoins = add(totalCoins, Coinage.toLong(BigInteger.valueOf(c)));
+      bigTotalCoins = bigTotalCoins.add(BigInteger.valueOf(c));
+    }
+    // Every node last minted at NEVER_MINTED
+    Object[] root = build(coins, 0, shift);
+    return totalCoins == OVERFLOW
+        ? new CoinageLedger(root, shift, bigTotalCoins, bigTotalCoins.negate())
+        : new CoinageLedger(root, shift, totalCoins, -totalCoins);
+  }
+
+  private static Object[] build(long[] coins, int offset, int shift) {
+    Object[] node = new Object[WIDTH];
+    for (int i = 0; i < WIDTH; i++) {
+      int index = offset + (i << shift);
+      if (index >= coins.length) {
+        break;
+      }
+      node[i] =
+          shift == 0
+              ? new Entry(new Coinage(coins[index], 0), NEVER_MINTED)
+              : build(coins, index, shift - BITS);
+    }
+    return node;
+  }
+
+  private Entry getEntry(int index) {
+    Object[] node = this.root;
+    for (int s = this.shift; s > 0; s -= BITS) {
+      node = (Object[]) node[(index >>> s) & MASK];
+    }
+    return (Entry) node[index & MASK];
+  }
+
+  /**
+   * Gets the coinage of a node.
+   *
+   * @param index the node index
+   * @param height the height of the block of the ledger
+   * @return the coinage
+   */
+  Coinage getCoinage(int index, int height) {
+    return this.getEntry(index).getCoinage(height);
+  }
+
+  /**
+   * Gets the total coinage of all nodes.
+   *
+   * @param height the height of the block of the ledger
+   * @return the total coinage
+   */
+  BigInteger getTotalCoinage(int height) {
+    long totalCoinage = this.getTotalCoinageValue(height);
+    if (totalCoinage != OVERFLOW) {
+      return BigInteger.valueOf(totalCoinage);
+    }
+    return this.getTotalCoins()
+        .multiply(BigInteger.valueOf(height))
+        .subtract(this.getTotalMintedCoins());
+  }
+
+  /**
+   * Gets the total coinage of all nodes as a long.
+   *
+   * @param height the height of the block of the ledger
+   * @return the total coinage, {@link Coinage#OVERFLOW} if it reaches {@link Coinage#LONG_BOUND}
+   */
+  long getTotalCoinageValue(int height) {
+    long totalMintedCoins = this.totalMintedCoins == OVERFLOW ? OVERFLOW : -this.totalMintedCoins;
+    return add(multiply(this.totalCoins, height), totalMintedCoins);
+  }
+
+  private BigInteger getTotalCoins() {
+    return this.bigTotalCoins == null ? BigInteger.valueOf(this.totalCoins) : this.bigTotalCoins;
+  }
+
+  private BigInteger getTotalMintedCoins() {
+    return this.bigTotalMintedCoins == null
+        ? BigInteger.valueOf(this.totalMintedCoins)
+        : this.bigTotalMintedCoins;
+  }
+
+  /**
+   * Creates the ledger of a child block, where the minter is rewarded for its coinage and the age
+   * of its coins is reset.
+   *
+   * @param index the node index of the minter
+   * @param height the height of the child block
+   * @param reward the reward per coinage
+   * @return the ledger
+   */
+  CoinageLedger reward(int index, int height, double reward) {
+    Entry entry = this.getEntry(index);
+    Coinage coinage = entry.getCoinage(height);
+    coinage.reward(reward);
+    Entry rewarded = new Entry(coinage, height);
+    Object[] root = set(this.root, this.shift, index, rewarded);
+
+    // The entries are below the bound, their difference does not overflow
+    long totalCoins =
+        entry.coins == OVERFLOW || rewarded.coins == OVERFLOW
+            ? OVERFLOW
+            : add(this.totalCoins, rewarded.coins - entry.coins);
+    long previousMintedCoins = multiply(entry.coins, entry.mintedHeight);
+    long totalMintedCoins =
+        add(
+            add(
+                this.totalMintedCoins,
+                previousMintedCoins == OVERFLOW ? OVERFLOW : -previousMintedCoins),
+            multiply(rewarded.coins, height));
+    if (totalCoins != OVERFLOW && totalMintedCoins != OVERFLOW) {
+      return new CoinageLedger(root, this.shift, totalCoins, totalMintedCoins);
+    }
+    BigInteger previousCoins = entry.getCoins();
+    BigInteger coins = rewarded.getCoins();
+    return new CoinageLedger(
+        root,
+        this.shift,
+        this.getTotalCoins().add(coins).subtract(previousCoins),
+        this.getTotalMintedCoins()
+            .subtract(previousCoins.multiply(BigInteger.valueOf(entry.mintedHeight)))
+            .add(coins.multiply(BigInteger.valueOf(height))));
+  }
+
+  private static Object[] set(Object[] node, int shift, int index, Entry entry) {
+    Object[] copy = node.clone();
+    int i = (index >>> shift) & MASK;
+    copy[i] = shift == 0 ? entry : set((Object[]) node[i], shift - BITS, index, entry);
+    return copy;
+  }
+}
@@ -22,13 +22,29 @@ import static simblock.simulator.Simulator.getTargetInterval;
 import java.math.BigInteger;
 import simblock.node.Node;
 
-/** The type Proof of work block. */
+/**
+ * The type Proof of work block. The difficulties are also held as longs while they are below
+ * {@link #LONG_BOUND}, which is the case unless the mining power or the number of blocks are
+ * extreme, so that they are compared without {@link BigInteger} arithmetic.
+ */
 public class ProofOfWorkBlock extends Block {
+  /** The bound of the difficulties held as longs, so that the sum of two does not overflow. */
+  private static final long LONG_BOUND = 1L << 62;
+
+  /** The long value of a difficulty reaching {@link #LONG_BOUND}. */
+  private static final long OVERFLOW = Long.MIN_VALUE;
+
   private final BigInteger difficulty;
-  private final BigInteger totalDifficulty;
   private final BigInteger nextDifficulty;
   private static BigInteger genesisNextDifficulty;
 
+  /** The total difficulty, null while it is held as a long. */
+  private final BigInteger totalDifficulty;
+
+  private final long difficultyValue;
+  private final long totalDifficultyValue;
+  private final long nextDifficultyValue;
+
   /**
    * Instantiates a new Proof of work block.
    *
@@ -38,17 +54,52 @@ public class ProofOfWorkBlock extends Block {
    * @param difficulty the difficulty
    */
   public ProofOfWorkBlock(ProofOfWorkBlock parent, Node minter, long time, BigInteger difficulty) {
-    super(parent, minter, time);
+    this(parent, minter, time, difficulty, nextId());
+  }
+
+  /**
+   * Instantiates a Proof of work block with a known id, see {@link Block#Block(Block, Node, long,
+   * int)}.
+   *
+   * @param parent the parent
+   * @param minter the minter
+   * @param time the time
+   * @param difficulty the difficulty
+   * @param id the id
+   */
+  public ProofOfWorkBlock(
+      ProofOfWorkBlock parent, Node minter, long time, BigInteger difficulty, int id) {
+    super(parent, minter, time, id);
     this.difficulty = difficulty;
+    this.difficultyValue = toLong(difficulty);
 
     if (parent == null) {
-      this.totalDifficulty = BigInteger.ZERO.add(difficulty);
       this.nextDifficulty = ProofOfWorkBlock.genesisNextDifficulty;
+      this.nextDifficultyValue = toLong(this.nextDifficulty);
     } else {
-      this.totalDifficulty = parent.getTotalDifficulty().add(difficulty);
       // TODO: difficulty adjustment
       this.nextDifficulty = parent.getNextDifficulty();
+      this.nextDifficultyValue = parent.nextDifficultyValue;
     }
+
+    long parentTotal = parent == null ? 0 : parent.totalDifficultyValue;
+    // Both are below the bound, their sum does not overflow
+    long total = parentTotal + this.difficultyValue;
+    if (parentTotal != OVERFLOW
+        && this.difficultyValue != OVERFLOW
+        && Math.abs(total) < LONG_BOUND) {
+      this.totalDifficulty = null;
+      this.totalDifficultyValue = total;
+    } else {
+      BigInteger parentTotalDifficulty =
+          parent == null ? BigInteger.ZERO : parent.getTotalDifficulty();
+      this.totalDifficulty = parentTotalDifficulty.add(difficulty);
+      this.totalDifficultyValue = OVERFLOW;
+    }
+  }
+
+  private static long toLong(BigInteger value) {
+    return value.bitLength() < 63 ? value.longValue() : OVERFLOW;
   }
 
   /**
@@ -66,7 +117,9 @@ public class ProofOfWorkBlock extends Block {
    * @return the total difficulty
    */
   public BigInteger getTotalDifficulty() {
-    return this.totalDifficulty;
+    return this.totalDifficulty == null
+        ? BigInteger.valueOf(this.totalDifficultyValue)
+        : this.totalDifficulty;
   }
 
   /**
@@ -78,6 +131,43 @@ public class ProofOfWorkBlock extends Block {
     return this.nextDifficulty;
   }
 
+  /**
+   * Gets next difficulty as a double, as the expected number of hashes to mint the next block.
+   *
+   * @return the next difficulty
+   */
+  public double getNextDifficultyAsDouble() {
+    return this.nextDifficultyValue == OVERFLOW
+        ? this.nextDifficulty.doubleValue()
+        : this.nextDifficultyValue;
+  }
+
+  /**
+   * Whether the difficulty of the block is at least the next difficulty of its parent.
+   *
+   * @param parent the parent
+   * @return true if the difficulty is enough
+   */
+  public boolean meetsNextDifficultyOf(ProofOfWorkBlock parent) {
+    if (this.difficultyValue != OVERFLOW && parent.nextDifficultyValue != OVERFLOW) {
+      return this.difficultyValue >= parent.nextDifficultyValue;
+    }
+    return this.difficulty.compareTo(parent.nextDifficulty) >= 0;
+  }
+
+  /**
+   * Whether the total difficulty of the block is greater than the one of another block.
+   *
+   * @param block the other block
+   * @return true if the block has more total difficulty
+   */
+  public boolean hasMoreTotalDifficultyThan(ProofOfWorkBlock block) {
+    if (this.totalDifficultyValue != OVERFLOW && block.totalDifficultyValue != OVERFLOW) {
+      return this.totalDifficultyValue > block.totalDifficultyValue;
+    }
+    return this.getTotalDifficulty().compareTo(block.getTotalDifficulty()) > 0;
+  }
+
   /**
    * Generates the genesis block, gets the total mining power and adjusts the difficulty of the next
    * block accordingly.
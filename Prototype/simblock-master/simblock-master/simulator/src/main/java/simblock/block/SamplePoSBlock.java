@@ -24,18 +24,23 @@ import static simblock.simulator.Simulator.getSimulatedNodes;
 import static simblock.simulator.Simulator.getTargetInterval;
 
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import simblock.node.Node;
 
-/** The type Sample proof of stake block. */
+/**
+ * The type Sample proof of stake block. The coinages of the nodes are held in a {@link
+ * CoinageLedger} shared with the parent block but for the entry of the minter.
+ */
 public class SamplePoSBlock extends Block {
-  private final Map<Node, Coinage> coinages;
-  private static Map<Node, Coinage> genesisCoinages;
+  private final CoinageLedger coinages;
+  private static CoinageLedger genesisCoinages;
   private final BigInteger difficulty;
   private final BigInteger totalDifficulty;
   private final BigInteger nextDifficulty;
 
+  /** The next difficulty as a long, {@link Coinage#OVERFLOW} if it reaches the bound. */
+  private final long nextDifficultyValue;
+
   /**
    * Instantiates a new Sample proof of stake block.
    *
@@ -47,24 +52,12 @@ public class SamplePoSBlock extends Block {
   public SamplePoSBlock(SamplePoSBlock parent, Node minter, long time, BigInteger difficulty) {
     super(parent, minter, time);
 
-    this.coinages = new HashMap<>();
-    if (parent == null) {
-      for (Node node : getSimulatedNodes()) {
-        this.coinages.put(node, genesisCoinages.get(node).clone());
-      }
-    } else {
-      for (Node node : getSimulatedNodes()) {
-        this.coinages.put(node, parent.getCoinage(node).clone());
-        this.coinages.get(node).increaseAge();
-      }
-      this.coinages.get(minter).reward(STAKING_REWARD);
-      this.coinages.get(minter).resetAge();
-    }
-
-    BigInteger totalCoinage = BigInteger.ZERO;
-    for (Node node : getSimulatedNodes()) {
-      totalCoinage = totalCoinage.add(this.coinages.get(node).getCoinage());
-    }
+    // The coins of every node age by one block, the minter is rewarded and its age reset
+    this.coinages =
+        parent == null
+            ? genesisCoinages
+            : parent.coinages.reward(minter.getNodeID() - 1, this.getHeight(), STAKING_REWARD);
+    long totalCoinage = this.coinages.getTotalCoinageValue(this.getHeight());
 
     this.difficulty = difficulty;
     if (parent == null) {
@@ -72,21 +65,29 @@ public class SamplePoSBlock extends Block {
     } else {
       this.totalDifficulty = parent.getTotalDifficulty().add(difficulty);
     }
-    this.nextDifficulty =
-        totalCoinage
-            .multiply(BigInteger.valueOf(getTargetInterval()))
-            .divide(BigInteger.valueOf(1000));
+    long nextDifficulty = Coinage.multiply(totalCoinage, getTargetInterval());
+    if (nextDifficulty != Coinage.OVERFLOW) {
+      this.nextDifficultyValue = nextDifficulty / 1000;
+      this.nextDifficulty = BigInteger.valueOf(this.nextDifficultyValue);
+    } else {
+      this.nextDifficultyValue = Coinage.OVERFLOW;
+      this.nextDifficulty =
+          this.coinages
+              .getTotalCoinage(this.getHeight())
+              .multiply(BigInteger.valueOf(getTargetInterval()))
+              .divide(BigInteger.valueOf(1000));
+    }
   }
 
   /**
    * Gets coinage.
    *
    * @param node the node
-   * @return the coinage
+   * @return a copy of the coinage of the node at this block
    */
   // TODO Coinage is related to proof of stake obviously
   public Coinage getCoinage(Node node) {
-    return this.coinages.get(node);
+    return this.coinages.getCoinage(node.getNodeID() - 1, this.getHeight());
   }
 
   /**
@@ -116,9 +117,20 @@ public class SamplePoSBlock extends Block {
     return this.nextDifficulty;
   }
 
+  /**
+   * Gets next difficulty as a double.
+   *
+   * @return the next difficulty
+   */
+  public double getNextDifficultyAsDouble() {
+    return this.nextDifficultyValue == Coinage.OVERFLOW
+        ? this.nextDifficulty.doubleValue()
+        : this.nextDifficultyValue;
+  }
+
   private static Coinage genCoinage() {
     double r = random.nextGaussian();
-    BigInteger coins = BigInteger.valueOf(Math.max((int) (r * STDEV_OF_COINS + AVERAGE_COINS), 0));
+    long coins = Math.max((int) (r * STDEV_OF_COINS + AVERAGE_COINS), 0);
     return new Coinage(coins, 1);
   }
 
@@ -129,10 +141,12 @@ public class SamplePoSBlock extends Block {
    * @return the sample proof of stake block
    */
   public static SamplePoSBlock genesisBlock(Node minter) {
-    genesisCoinages = new HashMap<>();
-    for (Node node : getSimulatedNodes()) {
-      genesisCoinages.put(node, genCoinage());
+    List<Node> nodes = getSimulatedNodes();
+    long[] coins = new long[nodes.size()];
+    for (Node node : nodes) {
+      coins[node.getNodeID() - 1] = genCoinage().getCoinsValue();
     }
+    genesisCoinages = CoinageLedger.genesis(coins);
     return new SamplePoSBlock(null, minter, 0, BigInteger.ZERO);
   }
 }
@@ -22,7 +22,9 @@ import static simblock.settings.SimulationConfiguration.CBR_FAILURE_BLOCK_SIZE_D
 import static simblock.settings.SimulationConfiguration.CBR_FAILURE_RATE_FOR_CHURN_NODE;
 import static simblock.settings.SimulationConfiguration.CBR_FAILURE_RATE_FOR_CONTROL_NODE;
 import static simblock.settings.SimulationConfiguration.COMPACT_BLOCK_SIZE;
-import static simblock.simulator.Main.OUT_JSON_FILE;
+import static simblock.settings.SimulationConfiguration.PARALLEL_THREADS;
+import static simblock.settings.SimulationConfiguration.USE_INV_BROADCAST;
+import static simblock.settings.SimulationConfiguration.USE_MESSAGE_EVENT_QUEUE;
 import static simblock.simulator.Main.random;
 import static simblock.simulator.Network.getBandwidth;
 import static simblock.simulator.Simulator.arriveBlock;
@@ -31,16 +33,23 @@ import static simblock.simulator.Timer.putTask;
 import static simblock.simulator.Timer.removeTask;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 import simblock.block.Block;
 import simblock.node.consensus.AbstractConsensusAlgo;
 import simblock.node.routing.AbstractRoutingTable;
+import simblock.simulator.BlockTree;
+import simblock.simulator.MessageEventQueue;
+import simblock.simulator.queue.ScheduledTask;
+import simblock.simulator.sink.EventSinks;
 import simblock.task.AbstractMessageTask;
 import simblock.task.AbstractMintingTask;
 import simblock.task.BlockMessageTask;
+import simblock.task.BlockSentTask;
 import simblock.task.CmpctBlockMessageTask;
 import simblock.task.GetBlockTxnMessageTask;
+import simblock.task.InvBroadcastTask;
 import simblock.task.InvMessageTask;
 import simblock.task.RecMessageTask;
 
@@ -70,11 +79,17 @@ public class Node {
   /** The current block. */
   private Block block;
 
-  /** Orphaned blocks known to node. */
-  private final Set<Block> orphans = new HashSet<>();
+  /**
+   * The ids of the orphaned blocks known to node, sorted, in the first {@link #numOrphans}
+   * entries.
+   */
+  private int[] orphans = new int[4];
 
-  /** The current minting task */
-  private AbstractMintingTask mintingTask = null;
+  /** The number of orphans known to node. */
+  private int numOrphans = 0;
+
+  /** The handle of the current minting task */
+  private ScheduledTask mintingTask = null;
 
   /** In the process of sending blocks. */
   // TODO verify
@@ -82,6 +97,19 @@ public class Node {
 
   // TODO
   private final ArrayList<AbstractMessageTask> messageQue = new ArrayList<>();
+
+  /**
+   * The requests received through the {@link MessageEventQueue}, as a ring of the indices of their
+   * records, in the order they were received.
+   */
+  private int[] requestRecords = new int[4];
+
+  /** The position of the oldest request in the ring. */
+  private int requestHead = 0;
+
+  /** The number of requests in the ring. */
+  private int requestCount = 0;
+
   // TODO
   private final Set<Block> downloadingBlocks = new HashSet<>();
 
@@ -146,6 +174,15 @@ public class Node {
     return this.region;
   }
 
+  /**
+   * Whether the node uses compact block relay.
+   *
+   * @return true if the node uses compact block relay, false for the legacy protocol
+   */
+  public boolean isUseCBR() {
+    return this.useCBR;
+  }
+
   /**
    * Gets mining power.
    *
@@ -184,12 +221,22 @@ public class Node {
   }
 
   /**
-   * Gets all orphans known to node.
+   * Whether a block is an orphan known to node.
    *
-   * @return the orphans
+   * @param block the block
+   * @return true if the block is an orphan
    */
-  public Set<Block> getOrphans() {
-    return this.orphans;
+  public boolean isOrphan(Block block) {
+    return Arrays.binarySearch(this.orphans, 0, this.numOrphans, block.getId()) >= 0;
+  }
+
+  /**
+   * Gets the number of orphans known to node.
+   *
+   * @return the number of orphans
+   */
+  public int getNumOrphans() {
+    return this.numOrphans;
   }
 
   /**
@@ -278,45 +325,59 @@ public class Node {
    * @param newBlock the block to be logged
    */
   private void printAddBlock(Block newBlock) {
-    OUT_JSON_FILE.print("{");
-    OUT_JSON_FILE.print("\"kind\":\"add-block\",");
-    OUT_JSON_FILE.print("\"content\":{");
-    OUT_JSON_FILE.print("\"timestamp\":" + getCurrentTime() + ",");
-    OUT_JSON_FILE.print("\"node-id\":" + this.getNodeID() + ",");
-    OUT_JSON_FILE.print("\"block-id\":" + newBlock.getId());
-    OUT_JSON_FILE.print("}");
-    OUT_JSON_FILE.print("},");
-    OUT_JSON_FILE.flush();
+    EventSinks.printAddBlock(getCurrentTime(), this.getNodeID(), newBlock.getId());
   }
 
   /**
-   * Add orphans.
+   * Add orphans: the blocks of the branch of the orphan block become orphans and the ones of the
+   * branch of the valid block do not, down to the common ancestor of both.
    *
    * @param orphanBlock the orphan block
    * @param validBlock the valid block
    */
-  // TODO check this out later
   public void addOrphans(Block orphanBlock, Block validBlock) {
-    if (orphanBlock != validBlock) {
-      this.orphans.add(orphanBlock);
-      this.orphans.remove(validBlock);
-      if (validBlock == null || orphanBlock.getHeight() > validBlock.getHeight()) {
-        this.addOrphans(orphanBlock.getParent(), validBlock);
-      } else if (orphanBlock.getHeight() == validBlock.getHeight()) {
-        this.addOrphans(orphanBlock.getParent(), validBlock.getParent());
-      } else {
-        this.addOrphans(orphanBlock, validBlock.getParent());
+    Block forkPoint = orphanBlock.getCommonAncestor(validBlock);
+    for (Block b = orphanBlock; b != forkPoint; b = b.getParent()) {
+      int index = Arrays.binarySearch(this.orphans, 0, this.numOrphans, b.getId());
+      if (index < 0) {
+        index = -index - 1;
+        if (this.numOrphans == this.orphans.length) {
+          this.orphans = Arrays.copyOf(this.orphans, this.numOrphans * 2);
+        }
+        System.arraycopy(this.orphans, index, this.orphans, index + 1, this.numOrphans - index);
+        this.orphans[index] = b.getId();
+        this.numOrphans++;
+      }
+    }
+    for (Block b = validBlock; b != forkPoint; b = b.getParent()) {
+      int index = Arrays.binarySearch(this.orphans, 0, this.numOrphans, b.getId());
+      if (index >= 0) {
+        this.numOrphans--;
+        System.arraycopy(this.orphans, index + 1, this.orphans, index, this.numOrphans - index);
+      }
+    }
+  }
+
+  /**
+   * Forgets the orphans the block tree has pruned: they are below the final block, so no block
+   * the node receives can descend from them.
+   *
+   * @param blockTree the block tree
+   */
+  public void pruneOrphans(BlockTree blockTree) {
+    int kept = 0;
+    for (int i = 0; i < this.numOrphans; i++) {
+      if (!blockTree.isPruned(this.orphans[i])) {
+        this.orphans[kept++] = this.orphans[i];
       }
     }
+    this.numOrphans = kept;
   }
 
   /** Generates a new minting task and registers it */
   public void minting() {
     AbstractMintingTask task = this.consensusAlgo.minting();
-    this.mintingTask = task;
-    if (task != null) {
-      putTask(task);
-    }
+    this.mintingTask = task == null ? null : putTask(task);
   }
 
   /**
@@ -325,9 +386,18 @@ public class Node {
    * @param block the block
    */
   public void sendInv(Block block) {
+    // The broadcast task reaches nodes of other partitions of the parallel engine
+    if (USE_INV_BROADCAST && PARALLEL_THREADS == 0) {
+      new InvBroadcastTask(this, this.routingTable.getNeighbors(), block).schedule();
+      return;
+    }
     for (Node to : this.routingTable.getNeighbors()) {
-      AbstractMessageTask task = new InvMessageTask(this, to, block);
-      putTask(task);
+      if (USE_MESSAGE_EVENT_QUEUE) {
+        MessageEventQueue.put(MessageEventQueue.INV, this, to, block, 0);
+      } else {
+        AbstractMessageTask task = new InvMessageTask(this, to, block);
+        putTask(task);
+      }
     }
   }
 
@@ -348,7 +418,7 @@ public class Node {
       this.minting();
       // Advertise received block
       this.sendInv(block);
-    } else if (!this.orphans.contains(block) && !block.isOnSameChainAs(this.block)) {
+    } else if (!this.isOrphan(block) && !block.isOnSameChainAs(this.block)) {
       // TODO better understand - what if orphan is not valid?
       // If the block was not valid but was an unknown orphan and is not on the same
       // chain as the
@@ -367,19 +437,7 @@ public class Node {
     Node from = message.getFrom();
 
     if (message instanceof InvMessageTask) {
-      Block block = ((InvMessageTask) message).getBlock();
-      if (!this.orphans.contains(block) && !this.downloadingBlocks.contains(block)) {
-        if (this.consensusAlgo.isReceivedBlockValid(block, this.block)) {
-          AbstractMessageTask task = new RecMessageTask(this, from, block);
-          putTask(task);
-          downloadingBlocks.add(block);
-        } else if (!block.isOnSameChainAs(this.block)) {
-          // get new orphan block
-          AbstractMessageTask task = new RecMessageTask(this, from, block);
-          putTask(task);
-          downloadingBlocks.add(block);
-        }
-      }
+      this.receiveInv(from, ((InvMessageTask) message).getBlock());
     }
 
     if (message instanceof RecMessageTask) {
@@ -397,23 +455,100 @@ public class Node {
     }
 
     if (message instanceof CmpctBlockMessageTask) {
-      Block block = ((CmpctBlockMessageTask) message).getBlock();
-      float CBRfailureRate =
-          this.isChurnNode ? CBR_FAILURE_RATE_FOR_CHURN_NODE : CBR_FAILURE_RATE_FOR_CONTROL_NODE;
-      boolean success = random.nextDouble() > CBRfailureRate ? true : false;
-      if (success) {
-        downloadingBlocks.remove(block);
-        this.receiveBlock(block);
-      } else {
-        AbstractMessageTask task = new GetBlockTxnMessageTask(this, from, block);
-        putTask(task);
-      }
+      this.receiveCmpctBlock(from, ((CmpctBlockMessageTask) message).getBlock());
     }
 
     if (message instanceof BlockMessageTask) {
-      Block block = ((BlockMessageTask) message).getBlock();
+      this.receiveBlockMessage(((BlockMessageTask) message).getBlock());
+    }
+  }
+
+  /**
+   * Receive an inv message and request the advertised block if it is new to the node.
+   *
+   * @param from the sender
+   * @param block the advertised block
+   */
+  public void receiveInv(Node from, Block block) {
+    if (!this.isOrphan(block) && !this.downloadingBlocks.contains(block)) {
+      if (this.consensusAlgo.isReceivedBlockValid(block, this.block)) {
+        this.sendRec(from, block);
+        downloadingBlocks.add(block);
+      } else if (!block.isOnSameChainAs(this.block)) {
+        // get new orphan block
+        this.sendRec(from, block);
+        downloadingBlocks.add(block);
+      }
+    }
+  }
+
+  /**
+   * Receive a rec or getblocktxn message of the {@link MessageEventQueue}. The request is queued
+   * until the block is sent, then its record is released.
+   *
+   * @param record the index of the record of the message
+   */
+  public void receiveRequest(int record) {
+    if (this.requestCount == this.requestRecords.length) {
+      int[] records = new int[this.requestCount * 2];
+      for (int i = 0; i < this.requestCount; i++) {
+        records[i] = this.requestRecords[(this.requestHead + i) % this.requestCount];
+      }
+      this.requestRecords = records;
+      this.requestHead = 0;
+    }
+    this.requestRecords[(this.requestHead + this.requestCount) % this.requestRecords.length] =
+        record;
+    this.requestCount++;
+    if (!sendingBlock) {
+      this.sendNextBlockMessage();
+    }
+  }
+
+  /**
+   * Receive a compact block message. If reconstructing the block fails, the missing transactions
+   * are requested.
+   *
+   * @param from the sender
+   * @param block the block
+   */
+  public void receiveCmpctBlock(Node from, Block block) {
+    float CBRfailureRate =
+        this.isChurnNode ? CBR_FAILURE_RATE_FOR_CHURN_NODE : CBR_FAILURE_RATE_FOR_CONTROL_NODE;
+    boolean success = random.nextDouble() > CBRfailureRate ? true : false;
+    if (success) {
       downloadingBlocks.remove(block);
       this.receiveBlock(block);
+    } else if (USE_MESSAGE_EVENT_QUEUE) {
+      MessageEventQueue.put(MessageEventQueue.GET_BLOCK_TXN, this, from, block, 0);
+    } else {
+      AbstractMessageTask task = new GetBlockTxnMessageTask(this, from, block);
+      putTask(task);
+    }
+  }
+
+  /**
+   * Receive a block message.
+   *
+   * @param block the block
+   */
+  public void receiveBlockMessage(Block block) {
+    downloadingBlocks.remove(block);
+    this.receiveBlock(block);
+  }
+
+  /**
+   * Request a block from the node that advertised it.
+   *
+   * @param to the node that advertised the block
+   * @param block the block
+   */
+  private void sendRec(Node to, Block block) {
+    if (USE_MESSAGE_EVENT_QUEUE) {
+      MessageEventQueue.put(MessageEventQueue.REC, this, to, block, 0);
+    } else {
+      AbstractMessageTask task = new RecMessageTask(this, to, block);
+      putTask(task);
     }
   }
 
@@ -431,42 +566,121 @@ public class Node {
   /** Send next block message. */
   // send a block to the sender of the next queued recMessage
   public void sendNextBlockMessage() {
-    if (this.messageQue.size() > 0) {
-      Node to = this.messageQue.get(0).getFrom();
-      long bandwidth = getBandwidth(this.getRegion(), to.getRegion());
-
-      AbstractMessageTask messageTask;
-
-      if (this.messageQue.get(0) instanceof RecMessageTask) {
-        Block block = ((RecMessageTask) this.messageQue.get(0)).getBlock();
-        // If use compact block relay.
-        if (this.messageQue.get(0).getFrom().useCBR && this.useCBR) {
-          // Convert bytes to bits and divide by the bandwidth expressed as bit per
-          // millisecond, add
-          // processing time.
-          long delay = COMPACT_BLOCK_SIZE * 8 / (bandwidth / 1000) + processingTime;
-
-          // Send compact block message.
-          messageTask = new CmpctBlockMessageTask(this, to, block, delay);
-        } else {
-          // Else use lagacy protocol.
-          long delay = BLOCK_SIZE * 8 / (bandwidth / 1000) + processingTime;
-          messageTask = new BlockMessageTask(this, to, block, delay);
-        }
-      } else if (this.messageQue.get(0) instanceof GetBlockTxnMessageTask) {
-        // Else from requests missing transactions.
-        Block block = ((GetBlockTxnMessageTask) this.messageQue.get(0)).getBlock();
-        long delay = getFailedBlockSize() * 8 / (bandwidth / 1000) + processingTime;
-        messageTask = new BlockMessageTask(this, to, block, delay);
+    if (this.requestCount > 0) {
+      int record = this.requestRecords[this.requestHead];
+      this.requestHead = (this.requestHead + 1) % this.requestRecords.length;
+      this.requestCount--;
+      this.sendBlock(
+          MessageEventQueue.getType(record) == MessageEventQueue.REC,
+          MessageEventQueue.getFrom(record),
+          MessageEventQueue.getBlock(record));
+      MessageEventQueue.release(record);
+    } else if (this.messageQue.size() > 0) {
+      AbstractMessageTask request = this.messageQue.remove(0);
+      if (request instanceof RecMessageTask) {
+        this.sendBlock(true, request.getFrom(), ((RecMessageTask) request).getBlock());
+      } else if (request instanceof GetBlockTxnMessageTask) {
+        this.sendBlock(false, request.getFrom(), ((GetBlockTxnMessageTask) request).getBlock());
       } else {
         throw new UnsupportedOperationException();
       }
-
-      sendingBlock = true;
-      this.messageQue.remove(0);
-      putTask(messageTask);
     } else {
       sendingBlock = false;
     }
   }
+
+  /**
+   * Sends a requested block.
+   *
+   * @param rec true for a rec message, false for a getblocktxn message requesting the missing
+   *     transactions
+   * @param to the node requesting the block
+   * @param block the block
+   */
+  private void sendBlock(boolean rec, Node to, Block block) {
+    long bandwidth = getBandwidth(this.getRegion(), to.getRegion());
+    int type;
+    long delay;
+    if (rec) {
+      // If use compact block relay.
+      if (to.useCBR && this.useCBR) {
+        // Convert bytes to bits and divide by the bandwidth expressed as bit per
+        // millisecond, add
+        // processing time.
+        delay = COMPACT_BLOCK_SIZE * 8 / (bandwidth / 1000) + processingTime;
+
+        // Send compact block message.
+        type = MessageEventQueue.CMPCT_BLOCK;
+      } else {
+        // Else use lagacy protocol.
+        delay = BLOCK_SIZE * 8 / (bandwidth / 1000) + processingTime;
+        type = MessageEventQueue.BLOCK;
+      }
+    } else {
+      // Else from requests missing transactions.
+      delay = getFailedBlockSize() * 8 / (bandwidth / 1000) + processingTime;
+      type = MessageEventQueue.BLOCK;
+    }
+
+    sendingBlock = true;
+    if (USE_MESSAGE_EVENT_QUEUE) {
+      MessageEventQueue.put(type, this, to, block, delay);
+    } else {
+      AbstractMessageTask message =
+          type == MessageEventQueue.CMPCT_BLOCK
+              ? new CmpctBlockMessageTask(this, to, block, delay)
+              : new BlockMessageTask(this, to, block, delay);
+      if (PARALLEL_THREADS > 0) {
+        // The receiver may be run by another partition, so the sender gets its own task
+        putTask(new BlockSentTask(this, message.getInterval()));
+      }
+      putTask(message);
+    }
+  }
+
+  /**
+   * Saves the state the node changes while the simulation runs, so that it can be restored when
+   * the parallel engine rolls back a speculative execution.
+   *
+   * @return the state
+   */
+  public State saveState() {
+    return new State(this);
+  }
+
+  /**
+   * Restores a saved state.
+   *
+   * @param state the state
+   */
+  public void restoreState(State state) {
+    this.block = state.block;
+    this.orphans = Arrays.copyOf(state.orphans, Math.max(state.orphans.length, 4));
+    this.numOrphans = state.orphans.length;
+    this.mintingTask = state.mintingTask;
+    this.sendingBlock = state.sendingBlock;
+    this.messageQue.clear();
+    this.messageQue.addAll(state.messageQue);
+    this.downloadingBlocks.clear();
+    this.downloadingBlocks.addAll(state.downloadingBlocks);
+  }
+
+  /** The state of a node saved by {@link #saveState()}. */
+  public static final class State {
+    private final Block block;
+    private final int[] orphans;
+    private final ScheduledTask mintingTask;
+    private final boolean sendingBlock;
+    private final ArrayList<AbstractMessageTask> messageQue;
+    private final Set<Block> downloadingBlocks;
+
+    private State(Node node) {
+      this.block = node.block;
+      this.orphans = Arrays.copyOf(node.orphans, node.numOrphans);
+      this.mintingTask = node.mintingTask;
+      this.sendingBlock = node.sendingBlock;
+      this.messageQue = new ArrayList<>(node.messageQue);
+      this.downloadingBlocks = new HashSet<>(node.downloadingBlocks);
+    }
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.node.consensus;
+
+/**
+ * A Fenwick tree (binary indexed tree) over non-negative weights. Updating a weight and sampling an
+ * index proportionally to its weight both cost O(log n).
+ */
+class FenwickTree {
+  /** The tree, 1-based. */
+  private final double[] tree;
+
+  /** The current weights, 0-based. */
+  private final double[] weights;
+
+  /** The sum of all weights. */
+  private double total = 0;
+
+  /** The highest power of two not greater than the size. */
+  private final int topBit;
+
+  /**
+   * Instantiates a new Fenwick tree with all weights set to zero.
+   *
+   * @param size the number of weights
+   */
+  FenwickTree(int size) {
+    this.tree = new double[size + 1];
+    this.weights = new double[size];
+    this.topBit = size == 0 ? 0 : Integer.highestOneBit(size);
+  }
+
+  /**
+   * Gets the weight at the provided index.
+   *
+   * @param index the index
+   * @return the weight
+   */
+  double get(int index) {
+    return this.weights[index];
+  }
+
+  /**
+   * Gets the sum of all weights.
+   *
+   * @return the total weight
+   */
+  double getTotal() {
+    return this.total;
+  }
+
+  /**
+   * Sets the weight at the provided index.
+   *
+   * @param index the index
+   * @param weight the new weight
+   */
+  void set(int index, double weight) {
+    double delta = weight - this.weights[index];
+    this.weights[index] = weight;
+    this.total += delta;
+    for (int i = index + 1; i < this.tree.length; i += i & -i) {
+      this.tree[i] += delta;
+    }
+  }
+
+  /**
+   * Finds the index whose weight interval contains the provided value, i.e. the smallest index
+   * whose prefix sum exceeds the value. A value drawn uniformly from [0, total) selects an index
+   * proportionally to its weight.
+   *
+   * @param value the value
+   * @return the index
+   */
+  int find(double value) {
+    int position = 0;
+    for (int bit = this.topBit; bit > 0; bit >>= 1) {
+      int next = position + bit;
+      if (next < this.tree.length && this.tree[next] <= value) {
+        position = next;
+        value -= this.tree[next];
+      }
+    }
+    // Guard against rounding errors pointing past the last index with a weight
+    while (position > 0 && (position >= this.weights.length || this.weights[position] == 0)) {
+      position--;
+    }
+    return position;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.node.consensus;
+
+import simblock.block.ProofOfWorkBlock;
+import simblock.node.Node;
+import simblock.task.SampledMiningTask;
+
+/**
+ * The type Mining sampler replaces the per node mining tasks of {@link ProofOfWork} with a single
+ * global one. Every node mines on its current block with the rate <em>mining power / next
+ * difficulty</em>. As mining times are exponentially distributed, the next block is found after an
+ * exponential time with the sum of all rates, by a node chosen proportionally to its rate. Hence
+ * only one {@link SampledMiningTask} is scheduled at any time and a block arrival costs O(log N)
+ * instead of one cancelled and one new task per node.
+ */
+public class MiningSampler extends MintingSampler {
+
+  /** The mining sampler of the simulation. */
+  private static final MiningSampler instance = new MiningSampler();
+
+  private MiningSampler() {
+    super(MiningSampler::getRate, MiningSampler::createTask);
+  }
+
+  /**
+   * Gets the mining sampler of the simulation.
+   *
+   * @return the mining sampler
+   */
+  public static MiningSampler getInstance() {
+    return instance;
+  }
+
+  private static double getRate(Node node) {
+    ProofOfWorkBlock block = (ProofOfWorkBlock) node.getBlock();
+    return node.getMiningPower() / block.getNextDifficultyAsDouble();
+  }
+
+  private static SampledMiningTask createTask(Node winner) {
+    ProofOfWorkBlock parent = (ProofOfWorkBlock) winner.getBlock();
+    return new SampledMiningTask(winner, parent.getNextDifficulty());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.node.consensus;
+
+import static simblock.simulator.Main.random;
+import static simblock.simulator.Simulator.getSimulatedNodes;
+import static simblock.simulator.Timer.getCurrentTime;
+import static simblock.simulator.Timer.putTaskAbsoluteTime;
+import static simblock.simulator.Timer.removeTask;
+
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import simblock.node.Node;
+import simblock.simulator.queue.ScheduledTask;
+import simblock.task.AbstractMintingTask;
+import simblock.task.Task;
+
+/**
+ * The type Minting sampler replaces the per node minting tasks of a consensus algorithm with a
+ * single global one. Every node mints on its current block after an exponential time with a given
+ * rate, so the next block is found after an exponential time with the sum of all rates, by a node
+ * chosen proportionally to its rate. The rates are kept in a {@link FenwickTree}, and only the rate
+ * of a node switching blocks is updated, at O(log N) cost.
+ *
+ * <p>When the sum of the rates changes, the next block is drawn anew by a single task scheduled at
+ * the current time, so the nodes switching blocks at that time before it runs only update their
+ * rates. The minting task is moved onto the new block of the chosen node whenever that node
+ * switches blocks.
+ */
+public class MintingSampler {
+
+  /** Gives the minting rate of a node on its current block, per millisecond. */
+  private final ToDoubleFunction<Node> rateFunction;
+
+  /** Creates the minting task of the chosen node on its current block. */
+  private final Function<Node, AbstractMintingTask> taskFactory;
+
+  /** The minting rate of every node, indexed by node ID - 1. */
+  private FenwickTree rates;
+
+  /** The node chosen to mint the next block. */
+  private Node winner = null;
+
+  /** The handle of the scheduled minting task. */
+  private ScheduledTask pending = null;
+
+  /** The sum of the rates the scheduled minting task was drawn with. */
+  private double scheduledRate = 0;
+
+  /** The handle of the scheduled redraw, null if the draw is up to date. */
+  private ScheduledTask redraw = null;
+
+  /** Task drawing the next block anew, at the time the rates changed. */
+  private final Task redrawTask =
+      new Task() {
+        @Override
+        public long getInterval() {
+          return 0;
+        }
+
+        @Override
+        public void run() {
+          redraw = null;
+          schedule();
+        }
+      };
+
+  /**
+   * Instantiates a new Minting sampler.
+   *
+   * @param rateFunction the minting rate of a node on its current block, per millisecond
+   * @param taskFactory the factory of the minting task of the chosen node on its current block
+   */
+  protected MintingSampler(
+      ToDoubleFunction<Node> rateFunction, Function<Node, AbstractMintingTask> taskFactory) {
+    this.rateFunction = rateFunction;
+    this.taskFactory = taskFactory;
+  }
+
+  /**
+   * Updates the minting rate of the provided node after it switched to a new block and reschedules
+   * the minting task if needed.
+   *
+   * @param node the node
+   */
+  public void update(Node node) {
+    if (this.rates == null) {
+      this.rates = new FenwickTree(getSimulatedNodes().size());
+    }
+    double rate = this.rateFunction.applyAsDouble(node);
+    int index = node.getNodeID() - 1;
+    if (this.rates.get(index) != rate) {
+      this.rates.set(index, rate);
+    }
+
+    if (this.redraw != null) {
+      // The draw is already made anew at this time
+      return;
+    }
+    if (this.pending == null || this.rates.getTotal() != this.scheduledRate) {
+      // The competition changed, draw the next block anew once the rates of this time are set
+      if (this.pending != null) {
+        removeTask(this.pending);
+        this.pending = null;
+      }
+      this.redraw = putTaskAbsoluteTime(this.redrawTask, getCurrentTime());
+    } else if (node == this.winner) {
+      // Same draw, but the winner now mints on its new block
+      long time = this.pending.getScheduledTime();
+      removeTask(this.pending);
+      this.pending = putTaskAbsoluteTime(this.taskFactory.apply(this.winner), time);
+    }
+  }
+
+  /**
+   * Marks the scheduled minting task as run, so the next call to {@link #update(Node)} draws a new
+   * one.
+   */
+  public void taskRun() {
+    this.pending = null;
+  }
+
+  /** Draws the next block's minter and time and schedules its minting task. */
+  private void schedule() {
+    this.scheduledRate = this.rates.getTotal();
+    if (this.scheduledRate <= 0) {
+      return;
+    }
+    double u = random.nextDouble();
+    long time = getCurrentTime() + (long) (-Math.log(1 - u) / this.scheduledRate);
+    this.winner =
+        getSimulatedNodes().get(this.rates.find(random.nextDouble() * this.scheduledRate));
+    this.pending = putTaskAbsoluteTime(this.taskFactory.apply(this.winner), time);
+  }
+}
@@ -18,7 +18,6 @@ package simblock.node.consensus;
 
 import static simblock.simulator.Main.random;
 
-import java.math.BigInteger;
 import simblock.block.Block;
 import simblock.block.ProofOfWorkBlock;
 import simblock.node.Node;
@@ -41,12 +40,11 @@ public class ProofOfWork extends AbstractConsensusAlgo {
   public MiningTask minting() {
     Node selfNode = this.getSelfNode();
     ProofOfWorkBlock parent = (ProofOfWorkBlock) selfNode.getBlock();
-    BigInteger difficulty = parent.getNextDifficulty();
     double u = random.nextDouble();
     return new MiningTask(
         selfNode,
-        (long) (-Math.log(1 - u) * difficulty.doubleValue() / selfNode.getMiningPower()),
-        difficulty);
+        (long) (-Math.log(1 - u) * parent.getNextDifficultyAsDouble() / selfNode.getMiningPower()),
+        parent.getNextDifficulty());
   }
 
   /**
@@ -66,18 +64,14 @@ public class ProofOfWork extends AbstractConsensusAlgo {
     }
     ProofOfWorkBlock recPoWBlock = (ProofOfWorkBlock) receivedBlock;
     ProofOfWorkBlock currPoWBlock = (ProofOfWorkBlock) currentBlock;
-    int receivedBlockHeight = receivedBlock.getHeight();
-    ProofOfWorkBlock receivedBlockParent =
-        receivedBlockHeight == 0
-            ? null
-            : (ProofOfWorkBlock) receivedBlock.getBlockWithHeight(receivedBlockHeight - 1);
+    // The parent of the genesis block or of a block at the pruned height is unknown, such a block
+    // has already been validated
+    ProofOfWorkBlock receivedBlockParent = (ProofOfWorkBlock) receivedBlock.getParent();
 
     // TODO - dangerous to split due to short circuit operators being used,
     // refactor?
-    return (receivedBlockHeight == 0
-            || recPoWBlock.getDifficulty().compareTo(receivedBlockParent.getNextDifficulty()) >= 0)
-        && (currentBlock == null
-            || recPoWBlock.getTotalDifficulty().compareTo(currPoWBlock.getTotalDifficulty()) > 0);
+    return (receivedBlockParent == null || recPoWBlock.meetsNextDifficultyOf(receivedBlockParent))
+        && (currentBlock == null || recPoWBlock.hasMoreTotalDifficultyThan(currPoWBlock));
   }
 
   @Override
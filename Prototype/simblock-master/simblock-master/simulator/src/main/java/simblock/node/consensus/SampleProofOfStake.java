@@ -41,7 +41,8 @@ public class SampleProofOfStake extends AbstractConsensusAlgo {
     Node selfNode = this.getSelfNode();
     SamplePoSBlock parent = (SamplePoSBlock) selfNode.getBlock();
     BigInteger difficulty = parent.getNextDifficulty();
-    double p = parent.getCoinage(selfNode).getCoinage().doubleValue() / difficulty.doubleValue();
+    double p =
+        parent.getCoinage(selfNode).getCoinageAsDouble() / parent.getNextDifficultyAsDouble();
     double u = random.nextDouble();
     return p <= Math.pow(2, -53)
         ? null
@@ -57,15 +58,13 @@ public class SampleProofOfStake extends AbstractConsensusAlgo {
     }
     SamplePoSBlock recPoSBlock = (SamplePoSBlock) receivedBlock;
     SamplePoSBlock currPoSBlock = (SamplePoSBlock) currentBlock;
-    int receivedBlockHeight = receivedBlock.getHeight();
-    SamplePoSBlock receivedBlockParent =
-        receivedBlockHeight == 0
-            ? null
-            : (SamplePoSBlock) receivedBlock.getBlockWithHeight(receivedBlockHeight - 1);
+    // The parent of the genesis block or of a block at the pruned height is unknown, such a block
+    // has already been validated
+    SamplePoSBlock receivedBlockParent = (SamplePoSBlock) receivedBlock.getParent();
 
     // TODO - dangerous to split due to short circuit operators being used,
     // refactor?
-    return (receivedBlockHeight == 0
+    return (receivedBlockParent == null
             || recPoSBlock.getDifficulty().compareTo(receivedBlockParent.getNextDifficulty()) >= 0)
         && (currentBlock == null
             || recPoSBlock.getTotalDifficulty().compareTo(currPoSBlock.getTotalDifficulty()) > 0);
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.node.consensus;
+
+import simblock.node.Node;
+import simblock.task.MiningTask;
+
+/**
+ * The type Sampled proof of work behaves like {@link ProofOfWork}, but instead of scheduling a
+ * mining task per node the next block is drawn by the global {@link MiningSampler}. It yields the
+ * same block interval distribution at O(log N) cost per block arrival.
+ */
+@SuppressWarnings("unused")
+public class SampledProofOfWork extends ProofOfWork {
+  /**
+   * Instantiates a new Sampled proof of work consensus algorithm.
+   *
+   * @param selfNode the self node
+   */
+  public SampledProofOfWork(Node selfNode) {
+    super(selfNode);
+  }
+
+  /**
+   * Reports the new block of the node to the {@link MiningSampler}.
+   *
+   * @return null, the mining task is scheduled by the sampler
+   */
+  @Override
+  public MiningTask minting() {
+    MiningSampler.getInstance().update(this.getSelfNode());
+    return null;
+  }
+}
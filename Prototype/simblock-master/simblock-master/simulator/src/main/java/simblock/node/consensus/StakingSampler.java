@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.node.consensus;
+
+import simblock.block.SamplePoSBlock;
+import simblock.node.Node;
+import simblock.task.SampledStakingTask;
+
+/**
+ * The type Staking sampler replaces the per node staking tasks of {@link SampleProofOfStake} with a
+ * single global one, as the {@link MiningSampler} does for proof of work. A node staking on its
+ * current block with the probability <em>p = coinage / next difficulty</em> per second mints after
+ * an exponential time with the rate <em>-ln(1 - p)</em> per second, so the next block is found
+ * after an exponential time with the sum of all rates, by a node chosen proportionally to its rate.
+ *
+ * <p>As the coinage of a node changes with every block, nearly every block switch changes the sum
+ * of the rates: the next block is then drawn anew once per timestamp at which nodes switch blocks,
+ * not once per switch.
+ */
+public class StakingSampler extends MintingSampler {
+
+  /** The staking sampler of the simulation. */
+  private static final StakingSampler instance = new StakingSampler();
+
+  private StakingSampler() {
+    super(StakingSampler::getRate, StakingSampler::createTask);
+  }
+
+  /**
+   * Gets the staking sampler of the simulation.
+   *
+   * @return the staking sampler
+   */
+  public static StakingSampler getInstance() {
+    return instance;
+  }
+
+  private static double getRate(Node node) {
+    SamplePoSBlock block = (SamplePoSBlock) node.getBlock();
+    double p = block.getCoinage(node).getCoinageAsDouble() / block.getNextDifficultyAsDouble();
+    // As SampleProofOfStake, a node with a negligible probability does not stake, and a certain
+    // one is bounded to stay finite
+    return p <= Math.pow(2, -53) ? 0 : -Math.log1p(-Math.min(p, 1 - 0x1p-53)) / 1000;
+  }
+
+  private static SampledStakingTask createTask(Node winner) {
+    SamplePoSBlock parent = (SamplePoSBlock) winner.getBlock();
+    return new SampledStakingTask(winner, parent.getNextDifficulty());
+  }
+}
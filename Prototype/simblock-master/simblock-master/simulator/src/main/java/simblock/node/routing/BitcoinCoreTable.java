@@ -16,7 +16,6 @@
 
 package simblock.node.routing;
 
-import static simblock.simulator.Main.OUT_JSON_FILE;
 import static simblock.simulator.Main.random;
 import static simblock.simulator.Simulator.getSimulatedNodes;
 import static simblock.simulator.Timer.getCurrentTime;
@@ -24,6 +23,7 @@ import static simblock.simulator.Timer.getCurrentTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import simblock.node.Node;
+import simblock.simulator.sink.EventSinks;
 
 /**
  * The implementation of the {@link AbstractRoutingTable} representing the Bitcoin core routing
@@ -149,27 +149,11 @@ public class BitcoinCoreTable extends AbstractRoutingTable {
 
   // TODO add example
   private void printAddLink(Node endNode) {
-    OUT_JSON_FILE.print("{");
-    OUT_JSON_FILE.print("\"kind\":\"add-link\",");
-    OUT_JSON_FILE.print("\"content\":{");
-    OUT_JSON_FILE.print("\"timestamp\":" + getCurrentTime() + ",");
-    OUT_JSON_FILE.print("\"begin-node-id\":" + getSelfNode().getNodeID() + ",");
-    OUT_JSON_FILE.print("\"end-node-id\":" + endNode.getNodeID());
-    OUT_JSON_FILE.print("}");
-    OUT_JSON_FILE.print("},");
-    OUT_JSON_FILE.flush();
+    EventSinks.printAddLink(getCurrentTime(), getSelfNode().getNodeID(), endNode.getNodeID());
   }
 
   // TODO add example
   private void printRemoveLink(Node endNode) {
-    OUT_JSON_FILE.print("{");
-    OUT_JSON_FILE.print("\"kind\":\"remove-link\",");
-    OUT_JSON_FILE.print("\"content\":{");
-    OUT_JSON_FILE.print("\"timestamp\":" + getCurrentTime() + ",");
-    OUT_JSON_FILE.print("\"begin-node-id\":" + getSelfNode().getNodeID() + ",");
-    OUT_JSON_FILE.print("\"end-node-id\":" + endNode.getNodeID());
-    OUT_JSON_FILE.print("}");
-    OUT_JSON_FILE.print("},");
-    OUT_JSON_FILE.flush();
+    EventSinks.printRemoveLink(getCurrentTime(), getSelfNode().getNodeID(), endNode.getNodeID());
   }
 }
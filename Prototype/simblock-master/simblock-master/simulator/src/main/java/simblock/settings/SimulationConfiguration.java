@@ -30,11 +30,155 @@ public class SimulationConfiguration {
   /** The kind of routing table. */
   public static final String TABLE = "simblock.node.routing.BitcoinCoreTable";
 
-  /** The consensus algorithm to be used. */
+  /**
+   * The consensus algorithm to be used. {@code simblock.node.consensus.SampledProofOfWork} and
+   * {@code simblock.node.consensus.SampledProofOfStake} draw the next block globally instead of
+   * scheduling a minting task per node, which scales to large networks.
+   */
   // TODO not documented in markdown
   // TODO return to PoW
   public static final String ALGO = "simblock.node.consensus.ProofOfWork";
 
+  /**
+   * The Future Event List implementation used by the timer. The binary heap {@code
+   * simblock.simulator.queue.PriorityTaskQueue} is the reference implementation, {@code
+   * simblock.simulator.queue.CalendarTaskQueue} enqueues and dequeues in O(1) amortized time.
+   */
+  public static final String TASK_QUEUE = "simblock.simulator.queue.PriorityTaskQueue";
+
+  /**
+   * Whether messages between nodes are stored as primitive records in the {@link
+   * simblock.simulator.MessageEventQueue} instead of being scheduled as message tasks on the timer.
+   */
+  public static final boolean USE_MESSAGE_EVENT_QUEUE = false;
+
+  /**
+   * Whether a node advertises a block to all its neighbors with a single {@link
+   * simblock.task.InvBroadcastTask} instead of one inv message per neighbor. The arrival times
+   * follow the same distribution, but are drawn one at a time as the deliveries are run, and only
+   * one task per advertised block is queued at a time.
+   */
+  public static final boolean USE_INV_BROADCAST = false;
+
+  /**
+   * The number of threads of the {@link simblock.simulator.ParallelEngine}, which partitions the
+   * nodes by region. Set to 0 to run the sequential engine. The parallel engine sends inv messages
+   * one by one and does not support the message event queue nor {@code
+   * simblock.node.consensus.SampledProofOfWork} and {@code
+   * simblock.node.consensus.SampledProofOfStake}.
+   */
+  public static final int PARALLEL_THREADS = 0;
+
+  /**
+   * Whether the parallel engine runs the partitions speculatively beyond the lookahead, rolling
+   * back the ones that went too far. The results are the same as with conservative windows.
+   */
+  public static final boolean PARALLEL_OPTIMISTIC = false;
+
+  /**
+   * The number of processes a sharded simulation runs on the local machine, each running the
+   * parallel engine for a range of regions. Set to 0 to run a single process. Requires {@link
+   * #PARALLEL_THREADS} and {@code simblock.node.consensus.ProofOfWork} and does not support {@link
+   * #BINARY_TRACE} nor {@link #BLOCK_STORE}. The output, the block lists and the propagation times
+   * of the shards are merged at the end.
+   */
+  public static final int NUM_OF_SHARDS = 0;
+
+  /**
+   * Whether the log output is written by a {@link simblock.simulator.AsyncLogWriter} on a
+   * background thread instead of being flushed to the file after each event.
+   */
+  public static final boolean ASYNC_LOG = true;
+
+  /** The number of characters of a chunk of the asynchronous log writer. */
+  public static final int LOG_CHUNK_SIZE = 1 << 16;
+
+  /**
+   * The number of chunks of the asynchronous log writer. The simulation waits for the writer
+   * thread when all of them are pending.
+   */
+  public static final int LOG_RING_SIZE = 16;
+
+  /**
+   * The minimal time in milliseconds between two writes of a partial chunk by the asynchronous log
+   * writer when the log output is flushed. Set to {@link Long#MAX_VALUE} to only write full chunks
+   * and the rest at the end of the simulation.
+   */
+  public static final long LOG_FLUSH_INTERVAL = 1000;
+
+  /**
+   * Whether the log output is written as a compact binary trace, trace.bin, instead of output.json
+   * and static.json. {@link simblock.simulator.TraceConverter} converts the trace to them. Not
+   * supported by a sharded simulation.
+   */
+  public static final boolean BINARY_TRACE = false;
+
+  /**
+   * The event sinks the log output is routed to, as class names. {@code
+   * simblock.simulator.sink.LogFileSink} writes output.json or the binary trace, {@code
+   * simblock.simulator.sink.NullEventSink} discards the events, {@code
+   * simblock.simulator.sink.MemoryEventSink} keeps them in memory and {@code
+   * simblock.simulator.sink.HttpEventSink} sends them all to {@link #FLASK_INGEST_URL}, instead of
+   * the transactions, blocks and attack logs only. A sharded or optimistic simulation supports the
+   * first two only.
+   */
+  public static final String[] EVENT_SINKS = {"simblock.simulator.sink.LogFileSink"};
+
+  /**
+   * The kinds of events not logged, for instance {@code {"flow-block", "add-link"}} to keep the
+   * blocks only. The start and the end of the simulation are always logged.
+   */
+  public static final String[] LOG_EXCLUDED_KINDS = {};
+
+  /**
+   * The fraction of the nodes or blocks whose flow-block and add-block events are logged. The
+   * sample is drawn from {@link #LOG_SAMPLING_SEED}, independently of the simulation, and described
+   * by a log-sampling event at the start of the log. Set to 1 to log every event.
+   */
+  public static final double LOG_SAMPLING_RATE = 1;
+
+  /**
+   * What is sampled: "NODE" logs the events of the sampled nodes, a flow-block event being the one
+   * of its receiver, "BLOCK" logs every event of the sampled blocks.
+   */
+  public static final String LOG_SAMPLING_MODE = "NODE";
+
+  /** The seed of the sample of {@link #LOG_SAMPLING_RATE}. */
+  public static final long LOG_SAMPLING_SEED = 0;
+
+  /**
+   * Whether the propagation time of each node is printed for each block. The propagation time
+   * histograms are printed at the end of the simulation either way.
+   */
+  public static final boolean PRINT_PROPAGATION = true;
+
+  /**
+   * The number of significant bits of the propagation time histograms: a percentile is within a
+   * relative error of 2^(1 - bits) of the recorded time.
+   */
+  public static final int PROPAGATION_HISTOGRAM_BITS = 8;
+
+  /** The URL of the Flask ingest endpoint the transactions, blocks and attack logs are sent to. */
+  public static final String FLASK_INGEST_URL = "http://127.0.0.1:5001/simblock_ingest";
+
+  /** The maximal number of events waiting to be sent to the Flask ingest endpoint. */
+  public static final int FORWARD_QUEUE_SIZE = 4096;
+
+  /** The maximal number of events sent to the Flask ingest endpoint in a request. */
+  public static final int FORWARD_BATCH_SIZE = 256;
+
+  /**
+   * Whether the simulation waits for room when the queue of events to send to the Flask ingest
+   * endpoint is full, instead of dropping the event.
+   */
+  public static final boolean FORWARD_BLOCK_WHEN_FULL = false;
+
+  /**
+   * The connect and read timeout of a request to the Flask ingest endpoint in milliseconds, also
+   * the time waited for the last events to be sent at the end of the simulation.
+   */
+  public static final int FORWARD_TIMEOUT = 1000;
+
   /**
    * The expected value of block generation interval. The difficulty of mining is automatically
    * adjusted by this value and the sum of mining power. (unit: millisecond)
@@ -68,6 +212,20 @@ public class SimulationConfiguration {
   // public static final int END_BLOCK_HEIGHT = 100;
   public static final int END_BLOCK_HEIGHT = 100;
 
+  /**
+   * The depth at which a block on the chain of every node is final: the blocks not descending from
+   * it are pruned into summaries of the {@link simblock.simulator.BlockTree}. Set to 0 to keep
+   * every block. Only supported by the sequential engine.
+   */
+  public static final int PRUNE_DEPTH = 0;
+
+  /**
+   * Whether the metadata of the blocks is written to the memory-mapped columns of a {@link
+   * simblock.simulator.BlockStore} in the blocks directory of the output as the run proceeds. Not
+   * supported by a sharded simulation.
+   */
+  public static final boolean BLOCK_STORE = false;
+
   /** Block size. (unit: byte). */
   public static final long BLOCK_SIZE = 535000; // 6110;//8000;//535000;//0.5MB
 
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The type Async log writer writes the log output to a file on a background thread.
+ *
+ * <p>The output is collected in chunks of characters. A chunk is handed over to the writer thread
+ * once it is full, or by {@link #flush()} once the flush interval has elapsed since the last hand
+ * over, so that the many calls to flush() of the log output cost no system call. The chunks are
+ * recycled through a bounded ring buffer: the simulation waits for the writer thread if all of them
+ * are pending. The writer thread encodes the chunks into a large direct byte buffer and writes it
+ * to the file whenever it is full or the thread has caught up. All output is written once the
+ * writer is closed.
+ */
+public class AsyncLogWriter extends Writer {
+  /** The chunk handed over to stop the writer thread. */
+  private static final Chunk END = new Chunk(0);
+
+  /** The chunks ready to be filled. */
+  private final ArrayBlockingQueue<Chunk> freeChunks;
+
+  /** The chunks to be written, in order. */
+  private final ArrayBlockingQueue<Chunk> fullChunks;
+
+  /** The minimal time between two hand overs by {@link #flush()} in nanoseconds. */
+  private final long flushInterval;
+
+  /** The chunk being filled. */
+  private Chunk chunk;
+
+  /** The time of the last hand over in nanoseconds. */
+  private long lastHandOver = System.nanoTime();
+
+  private final FileChannel channel;
+  private final Thread thread;
+
+  /** The error of the writer thread, reported to the simulation. */
+  private volatile IOException error;
+
+  private boolean closed = false;
+
+  /**
+   * Instantiates a new Async log writer and starts its thread.
+   *
+   * @param path the file to write, truncated if it exists
+   * @param charset the charset of the file
+   * @param chunkSize the number of characters of a chunk
+   * @param numChunks the number of chunks of the ring buffer, at least 2
+   * @param flushInterval the minimal time between two hand overs by {@link #flush()} in
+   *     milliseconds, {@link Long#MAX_VALUE} to only hand over full chunks
+   * @throws IOException if the file cannot be opened
+   */
+  public AsyncLogWriter(
+      Path path, Charset charset, int chunkSize, int numChunks, long flushInterval)
+      throws IOException {
+    this.channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    this.freeChunks = new ArrayBlockingQueue<>(numChunks);
+    this.fullChunks = new ArrayBlockingQueue<>(numChunks + 1);
+    for (int i = 1; i < numChunks; i++) {
+      this.freeChunks.add(new Chunk(chunkSize));
+    }
+    this.chunk = new Chunk(chunkSize);
+    this.flushInterval =
+        flushInterval >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : flushInterval * 1_000_000;
+
+    // At most 4 bytes per character
+    ByteBuffer bytes = ByteBuffer.allocateDirect(Math.max(chunkSize * 4, 1 << 20));
+    CharsetEncoder encoder = charset.newEncoder();
+    this.thread = new Thread(() -> this.drain(encoder, bytes), "log-writer");
+    // Output not closed properly is lost, as with a buffered writer
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    synchronized (this.lock) {
+      this.checkOpen();
+      while (len > 0) {
+        int count = Math.min(len, this.chunk.chars.length - this.chunk.length);
+        System.arraycopy(cbuf, off, this.chunk.chars, this.chunk.length, count);
+        this.chunk.length += count;
+        off += count;
+        len -= count;
+        if (this.chunk.length == this.chunk.chars.length) {
+          this.handOver();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    synchronized (this.lock) {
+      this.checkOpen();
+      while (len > 0) {
+        int count = Math.min(len, this.chunk.chars.length - this.chunk.length);
+        str.getChars(off, off + count, this.chunk.chars, this.chunk.length);
+        this.chunk.length += count;
+        off += count;
+        len -= count;
+        if (this.chunk.length == this.chunk.chars.length) {
+          this.handOver();
+        }
+      }
+    }
+  }
+
+  /**
+   * Hands the current chunk over to the writer thread if the flush interval has elapsed since the
+   * last hand over. The output reaches the file shortly after.
+   *
+   * @throws IOException if the writer thread failed
+   */
+  @Override
+  public void flush() throws IOException {
+    synchronized (this.lock) {
+      this.checkOpen();
+      if (this.chunk.length > 0 && System.nanoTime() - this.lastHandOver >= this.flushInterval) {
+        this.handOver();
+      }
+    }
+  }
+
+  /**
+   * Hands the rest of the output over, waits for the writer thread to write it and closes the file.
+   *
+   * @throws IOException if the output could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this.lock) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      try {
+        if (this.chunk.length > 0) {
+          this.fullChunks.put(this.chunk);
+        }
+        this.fullChunks.put(END);
+        this.thread.join();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      } finally {
+        this.channel.close();
+      }
+      if (this.error != null) {
+        throw this.error;
+      }
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (this.closed) {
+      throw new IOException("Writer closed");
+    }
+    if (this.error != null) {
+      throw this.error;
+    }
+  }
+
+  /**
+   * Hands the current chunk over to the writer thread and takes the next free one, waiting if the
+   * ring buffer is full.
+   *
+   * @throws IOException if interrupted while waiting
+   */
+  private void handOver() throws IOException {
+    try {
+      this.fullChunks.put(this.chunk);
+      this.chunk = this.freeChunks.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+    this.lastHandOver = System.nanoTime();
+  }
+
+  /**
+   * Encodes the chunks handed over into the byte buffer and writes it to the file, until the end.
+   * After an error, the chunks are only recycled.
+   *
+   * @param encoder the encoder of the charset of the file
+   * @param bytes the byte buffer
+   */
+  private void drain(CharsetEncoder encoder, ByteBuffer bytes) {
+    // A surrogate pair split between two chunks
+    CharBuffer carry = CharBuffer.allocate(2);
+    try {
+      while (true) {
+        Chunk next = this.fullChunks.take();
+        if (next == END) {
+          if (this.error == null) {
+            carry.flip();
+            this.encode(encoder, carry, bytes, true);
+            while (encoder.flush(bytes).isOverflow()) {
+              this.write(bytes);
+            }
+            this.write(bytes);
+          }
+          return;
+        }
+        if (this.error == null) {
+          try {
+            CharBuffer chars = CharBuffer.wrap(next.chars, 0, next.length);
+            if (carry.position() > 0) {
+              carry.put(chars.get()).flip();
+              this.encode(encoder, carry, bytes, false);
+              carry.clear();
+            }
+            this.encode(encoder, chars, bytes, false);
+            carry.put(chars);
+            // Write in large blocks while the simulation produces output, right away otherwise
+            if (this.fullChunks.isEmpty()) {
+              this.write(bytes);
+            }
+          } catch (IOException e) {
+            this.error = e;
+          }
+        }
+        next.length = 0;
+        this.freeChunks.put(next);
+      }
+    } catch (IOException e) {
+      this.error = e;
+    } catch (InterruptedException e) {
+      this.error = new InterruptedIOException();
+    }
+  }
+
+  private void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, boolean end)
+      throws IOException {
+    CoderResult result;
+    while ((result = encoder.encode(chars, bytes, end)).isOverflow()) {
+      this.write(bytes);
+    }
+    if (result.isError()) {
+      result.throwException();
+    }
+  }
+
+  private void write(ByteBuffer bytes) throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      this.channel.write(bytes);
+    }
+    bytes.clear();
+  }
+
+  /** A chunk of characters. */
+  private static class Chunk {
+    private final char[] chars;
+    private int length = 0;
+
+    private Chunk(int size) {
+      this.chars = new char[size];
+    }
+  }
+}
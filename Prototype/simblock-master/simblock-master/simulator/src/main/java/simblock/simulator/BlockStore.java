@@ -0,0 +1,364 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import simblock.block.Block;
+import simblock.block.ProofOfWorkBlock;
+import simblock.block.SamplePoSBlock;
+
+/**
+ * The type Block store keeps the metadata of the blocks in memory-mapped columns indexed by {@link
+ * Block#getId()}, one file per column in a directory, so that the chain of a run is written to disk
+ * as it proceeds and can be mapped by analysis tools once it has ended. The columns are
+ * little-endian arrays with a row per id:
+ *
+ * <ul>
+ *   <li><em>flags.bin</em>: a byte, {@link #STORED} for a stored block, with {@link #CANONICAL} for
+ *       a block of the canonical chain once the store is closed, 0 for an id with no block;
+ *   <li><em>parent.bin</em>: the int id of the parent, -1 for the genesis block;
+ *   <li><em>height.bin</em>: the int height;
+ *   <li><em>minter.bin</em>: the int node id of the minter, 0 for none;
+ *   <li><em>time.bin</em>: the long minting time in milliseconds;
+ *   <li><em>difficulty.bin</em>: the long difficulty, 0 for a block without one and {@link
+ *       Long#MIN_VALUE} for one that does not fit.
+ * </ul>
+ *
+ * <p>The files grow by segments as blocks are stored, so their rows past the largest id are
+ * padding. They are not truncated, which a file still mapped does not allow on every platform:
+ * once the store is closed, <em>rows.bin</em> holds the int number of rows, the largest id plus
+ * one, and only those rows are read.
+ */
+public class BlockStore {
+  /** The flag of a stored block. */
+  public static final byte STORED = 1;
+
+  /** The flag of a block of the canonical chain. */
+  public static final byte CANONICAL = 2;
+
+  /** The id of the parent of the genesis block. */
+  public static final int NO_PARENT = -1;
+
+  /** The difficulty of a block that does not fit in a long. */
+  public static final long OVERFLOW = Long.MIN_VALUE;
+
+  /** The log2 of the number of rows of a segment. */
+  private static final int SEGMENT_SHIFT = 16;
+
+  /** The file of the number of rows. */
+  private final File rowsFile;
+
+  private final Column flags;
+  private final Column parentIds;
+  private final Column heights;
+  private final Column minterIds;
+  private final Column times;
+  private final Column difficulties;
+  private final Column[] columns;
+
+  /** The number of rows, the largest stored id plus one. */
+  private int size = 0;
+
+  private final boolean readOnly;
+
+  /**
+   * Instantiates a new Block store, creating or mapping the column files of a directory.
+   *
+   * @param directory the directory of the column files
+   * @param readOnly whether the columns of a closed store are mapped to be read, or created to be
+   *     written, truncating existing files
+   * @throws IOException if a column file cannot be opened or mapped, or the number of rows of a
+   *     store to be read cannot be read
+   */
+  public BlockStore(File directory, boolean readOnly) throws IOException {
+    if (!readOnly && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create the block store directory " + directory);
+    }
+    this.readOnly = readOnly;
+    this.rowsFile = new File(directory, "rows.bin");
+    if (readOnly) {
+      byte[] rows = Files.readAllBytes(this.rowsFile.toPath());
+      if (rows.length != 4) {
+        throw new IOException("Invalid number of rows in " + this.rowsFile);
+      }
+      this.size = ByteBuffer.wrap(rows).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    } else {
+      // The number of rows of a previous run does not hold until this store is closed
+      Files.deleteIfExists(this.rowsFile.toPath());
+    }
+    this.flags = new Column(new File(directory, "flags.bin"), 1, readOnly, this.size);
+    this.parentIds = new Column(new File(directory, "parent.bin"), 4, readOnly, this.size);
+    this.heights = new Column(new File(directory, "height.bin"), 4, readOnly, this.size);
+    this.minterIds = new Column(new File(directory, "minter.bin"), 4, readOnly, this.size);
+    this.times = new Column(new File(directory, "time.bin"), 8, readOnly, this.size);
+    this.difficulties = new Column(new File(directory, "difficulty.bin"), 8, readOnly, this.size);
+    this.columns =
+        new Column[] {
+          this.flags, this.parentIds, this.heights, this.minterIds, this.times, this.difficulties
+        };
+  }
+
+  /**
+   * Stores a block and its ancestors not stored yet, down to a pruned parent.
+   *
+   * @param block the block
+   * @throws IOException if a column cannot grow
+   */
+  public void add(Block block) throws IOException {
+    for (Block b = block; b != null && !this.isStored(b.getId()); b = b.getParent()) {
+      int id = b.getId();
+      this.parentIds.putInt(id, b.getParent() == null ? NO_PARENT : b.getParent().getId());
+      this.heights.putInt(id, b.getHeight());
+      this.minterIds.putInt(id, b.getMinter() == null ? 0 : b.getMinter().getNodeID());
+      this.times.putLong(id, b.getTime());
+      this.difficulties.putLong(id, toLong(getDifficulty(b)));
+      this.flags.putByte(id, STORED);
+      this.size = Math.max(this.size, id + 1);
+    }
+  }
+
+  private static BigInteger getDifficulty(Block block) {
+    if (block instanceof ProofOfWorkBlock) {
+      return ((ProofOfWorkBlock) block).getDifficulty();
+    } else if (block instanceof SamplePoSBlock) {
+      return ((SamplePoSBlock) block).getDifficulty();
+    }
+    return BigInteger.ZERO;
+  }
+
+  private static long toLong(BigInteger value) {
+    return value.bitLength() < 64 ? value.longValue() : OVERFLOW;
+  }
+
+  /**
+   * Flags the stored blocks of the canonical chain of a block tree, closes the column files and
+   * writes the number of rows.
+   *
+   * @param blockTree the block tree or null to flag no block as canonical
+   * @throws IOException if a column file cannot be written
+   */
+  public void close(BlockTree blockTree) throws IOException {
+    if (!this.readOnly && blockTree != null) {
+      for (int id = 0; id < this.size; id++) {
+        if (this.isStored(id) && blockTree.isCanonical(id)) {
+          this.flags.putByte(id, (byte) (STORED | CANONICAL));
+        }
+      }
+    }
+    for (Column column : this.columns) {
+      column.close();
+    }
+    if (!this.readOnly) {
+      byte[] rows = new byte[4];
+      ByteBuffer.wrap(rows).order(ByteOrder.LITTLE_ENDIAN).putInt(this.size);
+      Files.write(this.rowsFile.toPath(), rows);
+    }
+  }
+
+  /**
+   * Gets the number of rows, the largest stored id plus one.
+   *
+   * @return the number of rows
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Whether a block is stored.
+   *
+   * @param id the block id
+   * @return true if the block is stored
+   */
+  public boolean isStored(int id) {
+    return id < this.flags.rows && (this.flags.getByte(id) & STORED) != 0;
+  }
+
+  /**
+   * Whether a stored block is on the canonical chain, known once the store is closed.
+   *
+   * @param id the block id
+   * @return true if the block is canonical
+   */
+  public boolean isCanonical(int id) {
+    return id < this.flags.rows && (this.flags.getByte(id) & CANONICAL) != 0;
+  }
+
+  /**
+   * Gets the id of the parent of a stored block.
+   *
+   * @param id the block id
+   * @return the parent id, {@link #NO_PARENT} for the genesis block
+   */
+  public int getParentId(int id) {
+    return this.parentIds.getInt(id);
+  }
+
+  /**
+   * Gets the height of a stored block.
+   *
+   * @param id the block id
+   * @return the height
+   */
+  public int getHeight(int id) {
+    return this.heights.getInt(id);
+  }
+
+  /**
+   * Gets the node id of the minter of a stored block.
+   *
+   * @param id the block id
+   * @return the node id, 0 for none
+   */
+  public int getMinterId(int id) {
+    return this.minterIds.getInt(id);
+  }
+
+  /**
+   * Gets the minting time of a stored block.
+   *
+   * @param id the block id
+   * @return the time in milliseconds
+   */
+  public long getTime(int id) {
+    return this.times.getLong(id);
+  }
+
+  /**
+   * Gets the difficulty of a stored block.
+   *
+   * @param id the block id
+   * @return the difficulty, {@link #OVERFLOW} if it does not fit in a long
+   */
+  public long getDifficulty(int id) {
+    return this.difficulties.getLong(id);
+  }
+
+  /**
+   * A column file mapped by segments of 2^{@link #SEGMENT_SHIFT} rows, so that it grows without
+   * remapping the rows already written.
+   */
+  private static class Column {
+    private final FileChannel channel;
+    private final int width;
+    private final boolean readOnly;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /** The number of mapped rows, all of them for a read-only column. */
+    private int rows = 0;
+
+    Column(File file, int width, boolean readOnly, int rows) throws IOException {
+      this.width = width;
+      this.readOnly = readOnly;
+      this.channel =
+          readOnly
+              ? FileChannel.open(file.toPath(), StandardOpenOption.READ)
+              : FileChannel.open(
+                  file.toPath(),
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.TRUNCATE_EXISTING,
+                  StandardOpenOption.READ,
+                  StandardOpenOption.WRITE);
+      if (readOnly) {
+        long fileSize = (long) rows * width;
+        if (this.channel.size() < fileSize) {
+          throw new IOException("Fewer than " + rows + " rows in " + file);
+        }
+        this.rows = rows;
+        int numSegments = (int) (((long) rows + (1 << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+          long offset = ((long) i << SEGMENT_SHIFT) * width;
+          this.segments[i] = this.map(offset, Math.min(fileSize - offset, this.length()));
+        }
+      }
+    }
+
+    private long length() {
+      return (long) this.width << SEGMENT_SHIFT;
+    }
+
+    private MappedByteBuffer map(long offset, long length) throws IOException {
+      MappedByteBuffer segment =
+          this.channel.map(this.readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE, offset, length);
+      segment.order(ByteOrder.LITTLE_ENDIAN);
+      return segment;
+    }
+
+    /** Gets the segment of a row to be written, mapping the segments up to it. */
+    private MappedByteBuffer grow(int row) throws IOException {
+      int index = row >>> SEGMENT_SHIFT;
+      if (index >= this.segments.length) {
+        int length = this.segments.length;
+        this.segments = Arrays.copyOf(this.segments, index + 1);
+        for (int i = length; i <= index; i++) {
+          this.segments[i] = this.map((long) i * this.length(), this.length());
+        }
+        this.rows = (index + 1) << SEGMENT_SHIFT;
+      }
+      return this.segments[index];
+    }
+
+    private int offset(int row) {
+      return (row & ((1 << SEGMENT_SHIFT) - 1)) * this.width;
+    }
+
+    void putByte(int row, byte value) throws IOException {
+      this.grow(row).put(this.offset(row), value);
+    }
+
+    void putInt(int row, int value) throws IOException {
+      this.grow(row).putInt(this.offset(row), value);
+    }
+
+    void putLong(int row, long value) throws IOException {
+      this.grow(row).putLong(this.offset(row), value);
+    }
+
+    byte getByte(int row) {
+      return this.segments[row >>> SEGMENT_SHIFT].get(this.offset(row));
+    }
+
+    int getInt(int row) {
+      return this.segments[row >>> SEGMENT_SHIFT].getInt(this.offset(row));
+    }
+
+    long getLong(int row) {
+      return this.segments[row >>> SEGMENT_SHIFT].getLong(this.offset(row));
+    }
+
+    /** Writes the mapped rows to the file and closes it. */
+    void close() throws IOException {
+      if (!this.readOnly) {
+        for (MappedByteBuffer segment : this.segments) {
+          segment.force();
+        }
+      }
+      this.channel.close();
+    }
+  }
+}
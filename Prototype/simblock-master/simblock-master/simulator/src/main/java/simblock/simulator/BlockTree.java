@@ -0,0 +1,493 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import simblock.block.Block;
+import simblock.node.Node;
+
+/**
+ * The type Block tree indexes every block of the simulation by id as it is first received, which
+ * is when it is minted. It keeps the children of each block and the canonical tip, chosen by the
+ * consensus algorithm of the minter of each new block as a node would choose its current block,
+ * and classifies each block as canonical or stale as the tip moves. A reorganization only visits
+ * the blocks between the old and the new tip and their common ancestor.
+ *
+ * <p>Once a block is final, deep enough on the chain of every node, the blocks that do not descend
+ * from it can be {@link #prune(List, int) pruned}: they are reduced to a summary of primitive
+ * columns indexed by id, and the final block and its descendants are detached from them so that
+ * they are garbage collected.
+ */
+public class BlockTree {
+  /** No block. */
+  private static final int NONE = -1;
+
+  /** The blocks by id, null for a block not received yet. */
+  private Block[] blocks = new Block[64];
+
+  /** The id of the most recent child of a block, by id. */
+  private int[] firstChildren = newIds(64);
+
+  /** The id of the next older sibling of a block, by id. */
+  private int[] nextSiblings = newIds(64);
+
+  /** The number of children of a block, by id. */
+  private int[] childCounts = new int[64];
+
+  /** Whether a block is on the chain of the tip, by id. */
+  private boolean[] canonical = new boolean[64];
+
+  /** The ids of the blocks in the order they were received. */
+  private int[] order = new int[64];
+
+  /** The number of blocks. */
+  private int size = 0;
+
+  /** The ids of the blocks not pruned. */
+  private int[] live = new int[64];
+
+  /** The number of blocks not pruned. */
+  private int liveCount = 0;
+
+  /** The ids of the pruned blocks. */
+  private final BitSet pruned = new BitSet();
+
+  /** The heights of the pruned blocks, by id. */
+  private int[] heights = new int[64];
+
+  /** The ids of the minters of the pruned blocks, by id. */
+  private int[] minterIds = new int[64];
+
+  /** The minting times of the pruned blocks, by id. */
+  private long[] times = new long[64];
+
+  /** The ids of the pruned canonical blocks, by height. */
+  private int[] canonicalIds = new int[64];
+
+  /** The class name of the pruned blocks. */
+  private String prunedClassName = Block.class.getName();
+
+  /** The canonical tip. */
+  private Block tip = null;
+
+  /** The number of blocks with more than one child. */
+  private int forks = 0;
+
+  /** The number of times the tip moved to another branch. */
+  private int reorgs = 0;
+
+  /** The largest number of blocks that became stale in a reorganization. */
+  private int maxReorgDepth = 0;
+
+  private static int[] newIds(int length) {
+    int[] ids = new int[length];
+    Arrays.fill(ids, NONE);
+    return ids;
+  }
+
+  /**
+   * Adds a block with its ancestors not added yet and moves the tip to it if the consensus
+   * algorithm of its minter prefers it to the tip.
+   *
+   * @param block the block
+   * @return true if the block was not in the tree
+   */
+  public boolean add(Block block) {
+    if (this.contains(block) || this.pruned.get(block.getId())) {
+      return false;
+    }
+    // The ancestors of a block minted by another shard may not have been received
+    List<Block> missing = new ArrayList<>();
+    for (Block b = block;
+        b != null && !this.contains(b) && !this.pruned.get(b.getId());
+        b = b.getParent()) {
+      missing.add(b);
+    }
+    for (int i = missing.size() - 1; i >= 0; i--) {
+      this.insert(missing.get(i));
+    }
+    return true;
+  }
+
+  private void insert(Block block) {
+    int id = block.getId();
+    this.ensureCapacity(id);
+    this.blocks[id] = block;
+    if (this.size == this.order.length) {
+      this.order = Arrays.copyOf(this.order, this.size * 2);
+    }
+    this.order[this.size++] = id;
+    if (this.liveCount == this.live.length) {
+      this.live = Arrays.copyOf(this.live, this.liveCount * 2);
+    }
+    this.live[this.liveCount++] = id;
+    Block parent = block.getParent();
+    if (parent != null) {
+      int parentId = parent.getId();
+      this.nextSiblings[id] = this.firstChildren[parentId];
+      this.firstChildren[parentId] = id;
+      if (++this.childCounts[parentId] == 2) {
+        this.forks++;
+      }
+    }
+    if (this.tip == null
+        || block.getMinter().getConsensusAlgo().isReceivedBlockValid(block, this.tip)) {
+      this.moveTip(block);
+    }
+  }
+
+  private void ensureCapacity(int id) {
+    int length = this.blocks.length;
+    if (id < length) {
+      return;
+    }
+    int newLength = Math.max(id + 1, length * 2);
+    this.blocks = Arrays.copyOf(this.blocks, newLength);
+    this.firstChildren = Arrays.copyOf(this.firstChildren, newLength);
+    Arrays.fill(this.firstChildren, length, newLength, NONE);
+    this.nextSiblings = Arrays.copyOf(this.nextSiblings, newLength);
+    Arrays.fill(this.nextSiblings, length, newLength, NONE);
+    this.childCounts = Arrays.copyOf(this.childCounts, newLength);
+    this.canonical = Arrays.copyOf(this.canonical, newLength);
+    this.heights = Arrays.copyOf(this.heights, newLength);
+    this.minterIds = Arrays.copyOf(this.minterIds, newLength);
+    this.times = Arrays.copyOf(this.times, newLength);
+  }
+
+  /**
+   * Prunes the blocks that do not descend from the final block, the block of the canonical chain
+   * that is at least a depth below the current block of every node and on the chain of each. The
+   * ancestors of a block below the final block are then only found by {@link #getAncestorId(Block,
+   * int)}.
+   *
+   * @param nodes the nodes
+   * @param depth the depth of the final block
+   * @return the number of pruned blocks, 0 if no block is final since the last pruning
+   */
+  public int prune(List<Node> nodes, int depth) {
+    if (this.tip == null) {
+      return 0;
+    }
+    int minHeight = this.tip.getHeight();
+    for (Node node : nodes) {
+      if (node.getBlock() != null) {
+        minHeight = Math.min(minHeight, node.getBlock().getHeight());
+      }
+    }
+    int height = minHeight - depth;
+    Block finalBlock = this.tip.getBlockWithHeight(height);
+    if (height <= Block.getPrunedHeight() || finalBlock == null) {
+      return 0;
+    }
+    for (Node node : nodes) {
+      if (node.getBlock() != null && node.getBlock().getBlockWithHeight(height) != finalBlock) {
+        return 0;
+      }
+    }
+
+    int count = 0;
+    int kept = 0;
+    for (int i = 0; i < this.liveCount; i++) {
+      Block block = this.blocks[this.live[i]];
+      if (block.getBlockWithHeight(height) == finalBlock) {
+        this.live[kept++] = this.live[i];
+      } else {
+        this.summarize(block);
+        count++;
+      }
+    }
+    this.liveCount = kept;
+    Block.setPrunedHeight(height);
+    for (int i = 0; i < kept; i++) {
+      this.blocks[this.live[i]].detachBelow(height);
+    }
+    for (Node node : nodes) {
+      node.pruneOrphans(this);
+    }
+    return count;
+  }
+
+  /**
+   * Reduces a block to its summary.
+   *
+   * @param block the block
+   */
+  private void summarize(Block block) {
+    int id = block.getId();
+    this.heights[id] = block.getHeight();
+    this.minterIds[id] = block.getMinter() == null ? 0 : block.getMinter().getNodeID();
+    this.times[id] = block.getTime();
+    if (this.canonical[id]) {
+      if (block.getHeight() >= this.canonicalIds.length) {
+        this.canonicalIds =
+            Arrays.copyOf(this.canonicalIds, Math.max(block.getHeight() + 1, this.size));
+      }
+      this.canonicalIds[block.getHeight()] = id;
+    }
+    this.prunedClassName = block.getClass().getName();
+    this.pruned.set(id);
+    this.blocks[id] = null;
+  }
+
+  /**
+   * Moves the tip, marking the blocks from the new tip back to the common ancestor as canonical
+   * and the ones from the old tip as stale.
+   *
+   * @param newTip the new tip
+   */
+  private void moveTip(Block newTip) {
+    Block added = newTip;
+    Block removed = this.tip;
+    int depth = 0;
+    while (added != removed) {
+      if (removed == null || added != null && added.getHeight() >= removed.getHeight()) {
+        this.canonical[added.getId()] = true;
+        added = added.getParent();
+      } else {
+        this.canonical[removed.getId()] = false;
+        removed = removed.getParent();
+        depth++;
+      }
+    }
+    if (depth > 0) {
+      this.reorgs++;
+      this.maxReorgDepth = Math.max(this.maxReorgDepth, depth);
+    }
+    this.tip = newTip;
+  }
+
+  /**
+   * Whether a block is in the tree.
+   *
+   * @param block the block
+   * @return true if the block was added
+   */
+  public boolean contains(Block block) {
+    int id = block.getId();
+    return id < this.blocks.length && this.blocks[id] == block;
+  }
+
+  /**
+   * Whether a block is on the chain of the canonical tip.
+   *
+   * @param block the block
+   * @return true if the block is canonical, false if it is stale or not in the tree
+   */
+  public boolean isCanonical(Block block) {
+    return this.contains(block) && this.canonical[block.getId()];
+  }
+
+  /**
+   * Whether a block has been pruned.
+   *
+   * @param id the block id
+   * @return true if the block is pruned
+   */
+  public boolean isPruned(int id) {
+    return this.pruned.get(id);
+  }
+
+  /**
+   * Gets the height of a block, pruned or not.
+   *
+   * @param id the block id
+   * @return the height
+   */
+  public int getHeight(int id) {
+    return this.pruned.get(id) ? this.heights[id] : this.blocks[id].getHeight();
+  }
+
+  /**
+   * Gets the id of the minter of a block, pruned or not.
+   *
+   * @param id the block id
+   * @return the node id of the minter
+   */
+  public int getMinterId(int id) {
+    return this.pruned.get(id) ? this.minterIds[id] : this.blocks[id].getMinter().getNodeID();
+  }
+
+  /**
+   * Gets the minting time of a block, pruned or not.
+   *
+   * @param id the block id
+   * @return the time
+   */
+  public long getTime(int id) {
+    return this.pruned.get(id) ? this.times[id] : this.blocks[id].getTime();
+  }
+
+  /**
+   * Whether a block, pruned or not, is on the chain of the canonical tip.
+   *
+   * @param id the block id
+   * @return true if the block is canonical, false if it is stale
+   */
+  public boolean isCanonical(int id) {
+    return this.canonical[id];
+  }
+
+  /**
+   * Gets the id of the ancestor of a block at a height, the ancestors below the pruned height being
+   * those of the canonical chain.
+   *
+   * @param block the block, not pruned
+   * @param height the height
+   * @return the id of the ancestor or -1 if the height is above the block or negative
+   */
+  public int getAncestorId(Block block, int height) {
+    if (height > block.getHeight() || height < 0) {
+      return NONE;
+    }
+    if (height >= Block.getPrunedHeight()) {
+      return block.getBlockWithHeight(height).getId();
+    }
+    return this.canonicalIds[height];
+  }
+
+  /**
+   * Gets the canonical tip.
+   *
+   * @return the tip or null if the tree is empty
+   */
+  public Block getTip() {
+    return this.tip;
+  }
+
+  /**
+   * Gets the children of a block, the most recent first.
+   *
+   * @param block the block
+   * @return the children
+   */
+  public List<Block> getChildren(Block block) {
+    List<Block> children = new ArrayList<>();
+    if (this.contains(block)) {
+      for (int id = this.firstChildren[block.getId()]; id != NONE; id = this.nextSiblings[id]) {
+        children.add(this.blocks[id]);
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Gets the number of blocks, the genesis block included.
+   *
+   * @return the number of blocks
+   */
+  public int getBlockCount() {
+    return this.size;
+  }
+
+  /**
+   * Gets the number of blocks not on the chain of the canonical tip.
+   *
+   * @return the number of stale blocks
+   */
+  public int getStaleCount() {
+    // Every ancestor of a block is in the tree, down to the genesis block
+    return this.tip == null ? 0 : this.size - this.tip.getHeight() - 1;
+  }
+
+  /**
+   * Gets the fraction of the minted blocks, the genesis block excluded, that are stale.
+   *
+   * @return the stale rate
+   */
+  public double getStaleRate() {
+    return this.size <= 1 ? 0 : (double) this.getStaleCount() / (this.size - 1);
+  }
+
+  /**
+   * Gets the number of blocks with more than one child.
+   *
+   * @return the number of forks
+   */
+  public int getForkCount() {
+    return this.forks;
+  }
+
+  /**
+   * Gets the number of times the canonical tip moved to another branch.
+   *
+   * @return the number of reorganizations
+   */
+  public int getReorgCount() {
+    return this.reorgs;
+  }
+
+  /**
+   * Gets the largest number of canonical blocks that became stale at once.
+   *
+   * @return the largest depth of a reorganization
+   */
+  public int getMaxReorgDepth() {
+    return this.maxReorgDepth;
+  }
+
+  /**
+   * Prints every block but the genesis block in the order they were received, in the format:
+   *
+   * <p><em>OnChain : height : block</em> or <em>Orphan : height : block</em> for a stale block.
+   *
+   * @param out the output
+   */
+  public void printBlockList(PrintWriter out) {
+    for (int i = 0; i < this.size; i++) {
+      int id = this.order[i];
+      Block block = this.blocks[id];
+      int height = block == null ? this.heights[id] : block.getHeight();
+      if (height > 0) {
+        out.println(
+            (this.canonical[id] ? "OnChain : " : "Orphan : ")
+                + height
+                + " : "
+                + (block == null ? this.prunedClassName + "@" + Integer.toHexString(id) : block));
+      }
+    }
+  }
+
+  /**
+   * Gets the statistics of the tree.
+   *
+   * @return the number of blocks, the height of the tip, the number of stale blocks and the stale
+   *     rate, the number of forks, the number and largest depth of the reorganizations, and the
+   *     number of pruned blocks
+   */
+  public String getStatistics() {
+    return "blocks: "
+        + this.size
+        + ", height: "
+        + (this.tip == null ? 0 : this.tip.getHeight())
+        + ", stale: "
+        + this.getStaleCount()
+        + ", stale rate: "
+        + this.getStaleRate()
+        + ", forks: "
+        + this.forks
+        + ", reorgs: "
+        + this.reorgs
+        + ", max reorg depth: "
+        + this.maxReorgDepth
+        + ", pruned: "
+        + (this.size - this.liveCount);
+  }
+}
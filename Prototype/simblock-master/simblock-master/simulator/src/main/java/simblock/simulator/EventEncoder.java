@@ -0,0 +1,380 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import simblock.settings.SimulationConfiguration;
+
+/**
+ * The type Event encoder encodes the events of the log output without allocating. Each event is
+ * encoded into a reusable buffer of characters, from pre-encoded keys and the digits of its
+ * numbers, to be written at once. The output is the same as the one of string concatenation.
+ *
+ * <p>With {@link SimulationConfiguration#BINARY_TRACE}, the events are encoded as the records of a
+ * binary trace instead, one character per byte, which {@link TraceConverter} converts back to
+ * JSON. The trace starts with the magic bytes {@code SBTR}, the version, the region list and the
+ * configuration of the run. Each record is the byte of its kind followed by its numbers as zigzag
+ * varints; the events logged as JSON text are recorded as UTF-8 strings.
+ */
+public final class EventEncoder {
+  /** The magic bytes starting a binary trace. */
+  static final String MAGIC = "SBTR";
+
+  /** The version of the binary trace format. */
+  static final int VERSION = 1;
+
+  static final int ADD_NODE_RECORD = 1;
+  static final int ADD_LINK_RECORD = 2;
+  static final int REMOVE_LINK_RECORD = 3;
+  static final int ADD_BLOCK_RECORD = 4;
+  static final int FLOW_BLOCK_RECORD = 5;
+  static final int SIMULATION_END_RECORD = 6;
+  static final int JSON_RECORD = 7;
+
+  private static final char[] START = "[".toCharArray();
+  private static final char[] ADD_NODE =
+      "{\"kind\":\"add-node\",\"content\":{\"timestamp\":".toCharArray();
+  private static final char[] ADD_LINK =
+      "{\"kind\":\"add-link\",\"content\":{\"timestamp\":".toCharArray();
+  private static final char[] REMOVE_LINK =
+      "{\"kind\":\"remove-link\",\"content\":{\"timestamp\":".toCharArray();
+  private static final char[] ADD_BLOCK =
+      "{\"kind\":\"add-block\",\"content\":{\"timestamp\":".toCharArray();
+  private static final char[] FLOW_BLOCK =
+      "{\"kind\":\"flow-block\",\"content\":{\"transmission-timestamp\":".toCharArray();
+  private static final char[] SIMULATION_END =
+      "{\"kind\":\"simulation-end\",\"content\":{\"timestamp\":".toCharArray();
+  private static final char[] RECEPTION_TIMESTAMP = ",\"reception-timestamp\":".toCharArray();
+  private static final char[] NODE_ID = ",\"node-id\":".toCharArray();
+  private static final char[] REGION_ID = ",\"region-id\":".toCharArray();
+  private static final char[] BEGIN_NODE_ID = ",\"begin-node-id\":".toCharArray();
+  private static final char[] END_NODE_ID = ",\"end-node-id\":".toCharArray();
+  private static final char[] BLOCK_ID = ",\"block-id\":".toCharArray();
+  private static final char[] SEPARATOR = ",".toCharArray();
+  private static final char[] END = "}},".toCharArray();
+  private static final char[] LAST_END = "}}]".toCharArray();
+
+  /** Whether the events are encoded as binary records. */
+  private final boolean binary;
+
+  /** The characters of the event being encoded, grown for long events. */
+  private char[] chars = new char[256];
+
+  /** The number of characters encoded. */
+  private int length = 0;
+
+  /**
+   * Instantiates a new Event encoder.
+   *
+   * @param binary whether the events are encoded as binary records
+   */
+  public EventEncoder(boolean binary) {
+    this.binary = binary;
+  }
+
+  /**
+   * Encodes the start of the log output, the header of a binary trace.
+   *
+   * @param regions the region list
+   * @return the encoder
+   */
+  public EventEncoder start(List<String> regions) {
+    if (!this.binary) {
+      return this.append(START);
+    }
+    for (int i = 0; i < MAGIC.length(); i++) {
+      this.appendByte(MAGIC.charAt(i));
+    }
+    this.appendVarint(VERSION);
+    this.appendVarint(regions.size());
+    for (String region : regions) {
+      this.appendString(region);
+    }
+    Field[] fields = SimulationConfiguration.class.getFields();
+    this.appendVarint(fields.length);
+    for (Field field : fields) {
+      this.appendString(field.getName());
+      this.appendString(getValue(field));
+    }
+    return this;
+  }
+
+  /**
+   * Encodes the addition of a node at the start of the simulation.
+   *
+   * @param nodeId the node id
+   * @param regionId the region id of the node
+   * @return the encoder
+   */
+  public EventEncoder addNode(int nodeId, int regionId) {
+    if (this.binary) {
+      return this.appendByte(ADD_NODE_RECORD).appendVarint(nodeId).appendVarint(regionId);
+    }
+    this.append(ADD_NODE).append(0);
+    this.append(NODE_ID).append(nodeId);
+    this.append(REGION_ID).append(regionId);
+    return this.append(END);
+  }
+
+  private EventEncoder link(int record, char[] kind, long time, int beginNodeId, int endNodeId) {
+    if (this.binary) {
+      return this.appendByte(record)
+          .appendVarint(time)
+          .appendVarint(beginNodeId)
+          .appendVarint(endNodeId);
+    }
+    this.append(kind).append(time);
+    this.append(BEGIN_NODE_ID).append(beginNodeId);
+    this.append(END_NODE_ID).append(endNodeId);
+    return this.append(END);
+  }
+
+  /**
+   * Encodes the addition of a link between two nodes.
+   *
+   * @param time the time in milliseconds
+   * @param beginNodeId the id of the node adding the link
+   * @param endNodeId the id of the node linked to
+   * @return the encoder
+   */
+  public EventEncoder addLink(long time, int beginNodeId, int endNodeId) {
+    return this.link(ADD_LINK_RECORD, ADD_LINK, time, beginNodeId, endNodeId);
+  }
+
+  /**
+   * Encodes the removal of a link between two nodes.
+   *
+   * @param time the time in milliseconds
+   * @param beginNodeId the id of the node removing the link
+   * @param endNodeId the id of the node unlinked from
+   * @return the encoder
+   */
+  public EventEncoder removeLink(long time, int beginNodeId, int endNodeId) {
+    return this.link(REMOVE_LINK_RECORD, REMOVE_LINK, time, beginNodeId, endNodeId);
+  }
+
+  /**
+   * Encodes the addition of a block to the chain of a node.
+   *
+   * @param time the time in milliseconds
+   * @param nodeId the node id
+   * @param blockId the block id
+   * @return the encoder
+   */
+  public EventEncoder addBlock(long time, int nodeId, int blockId) {
+    if (this.binary) {
+      return this.appendByte(ADD_BLOCK_RECORD)
+          .appendVarint(time)
+          .appendVarint(nodeId)
+          .appendVarint(blockId);
+    }
+    this.append(ADD_BLOCK).append(time);
+    this.append(NODE_ID).append(nodeId);
+    this.append(BLOCK_ID).append(blockId);
+    return this.append(END);
+  }
+
+  /**
+   * Encodes the transmission of a block between two nodes.
+   *
+   * @param transmissionTime the time the transmission started in milliseconds
+   * @param receptionTime the time the block was received in milliseconds
+   * @param beginNodeId the id of the sender
+   * @param endNodeId the id of the receiver
+   * @param blockId the block id
+   * @return the encoder
+   */
+  public EventEncoder flowBlock(
+      long transmissionTime, long receptionTime, int beginNodeId, int endNodeId, int blockId) {
+    if (this.binary) {
+      // The delay is smaller than the reception time
+      return this.appendByte(FLOW_BLOCK_RECORD)
+          .appendVarint(receptionTime)
+          .appendVarint(receptionTime - transmissionTime)
+          .appendVarint(beginNodeId)
+          .appendVarint(endNodeId)
+          .appendVarint(blockId);
+    }
+    this.append(FLOW_BLOCK).append(transmissionTime);
+    this.append(RECEPTION_TIMESTAMP).append(receptionTime);
+    this.append(BEGIN_NODE_ID).append(beginNodeId);
+    this.append(END_NODE_ID).append(endNodeId);
+    this.append(BLOCK_ID).append(blockId);
+    return this.append(END);
+  }
+
+  /**
+   * Encodes an event given as a JSON object.
+   *
+   * @param event the JSON object
+   * @return the encoder
+   */
+  public EventEncoder json(String event) {
+    if (this.binary) {
+      return this.appendByte(JSON_RECORD).appendString(event);
+    }
+    this.ensureCapacity(event.length());
+    event.getChars(0, event.length(), this.chars, this.length);
+    this.length += event.length();
+    return this.append(SEPARATOR);
+  }
+
+  /**
+   * Encodes the end of the simulation, the last event, which closes the log array.
+   *
+   * @param time the time in milliseconds
+   * @return the encoder
+   */
+  public EventEncoder simulationEnd(long time) {
+    if (this.binary) {
+      return this.appendByte(SIMULATION_END_RECORD).appendVarint(time);
+    }
+    return this.append(SIMULATION_END).append(time).append(LAST_END);
+  }
+
+  /**
+   * Writes the event encoded and resets the buffer.
+   *
+   * @param out the writer
+   * @throws IOException if the writer fails
+   */
+  public void writeTo(Writer out) throws IOException {
+    out.write(this.chars, 0, this.length);
+    this.length = 0;
+  }
+
+  /**
+   * Writes the event encoded to a log output, flushes it and resets the buffer.
+   *
+   * @param out the log output
+   */
+  public void printTo(PrintWriter out) {
+    out.write(this.chars, 0, this.length);
+    out.flush();
+    this.length = 0;
+  }
+
+  /**
+   * Takes the JSON object of the event encoded, without the separator following it in the log
+   * output, and resets the buffer.
+   *
+   * @return the JSON object
+   */
+  public String takeEvent() {
+    String event = new String(this.chars, 0, this.length - 1);
+    this.length = 0;
+    return event;
+  }
+
+  private static String getValue(Field field) {
+    try {
+      Object value = field.get(null);
+      if (value instanceof Object[]) {
+        return Arrays.deepToString((Object[]) value);
+      } else if (value != null && value.getClass().isArray()) {
+        // An array of any primitive type, formatted as Arrays.toString does
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < Array.getLength(value); i++) {
+          text.append(i == 0 ? "" : ", ").append(Array.get(value, i));
+        }
+        return text.append(']').toString();
+      }
+      return String.valueOf(value);
+    } catch (IllegalAccessException e) {
+      return "";
+    }
+  }
+
+  private void ensureCapacity(int count) {
+    if (this.length + count > this.chars.length) {
+      this.chars = Arrays.copyOf(this.chars, Math.max(this.chars.length * 2, this.length + count));
+    }
+  }
+
+  private EventEncoder append(char[] text) {
+    this.ensureCapacity(text.length);
+    System.arraycopy(text, 0, this.chars, this.length, text.length);
+    this.length += text.length;
+    return this;
+  }
+
+  /**
+   * Appends the decimal digits of a number, as {@link Long#toString(long)} writes them.
+   *
+   * @param value the number
+   * @return the encoder
+   */
+  private EventEncoder append(long value) {
+    if (value == Long.MIN_VALUE) {
+      return this.append(Long.toString(value).toCharArray());
+    }
+    this.ensureCapacity(20);
+    if (value < 0) {
+      this.chars[this.length++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+      digits++;
+    }
+    this.length += digits;
+    for (int i = this.length - 1; i >= this.length - digits; i--) {
+      this.chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return this;
+  }
+
+  private EventEncoder appendByte(int value) {
+    this.ensureCapacity(1);
+    this.chars[this.length++] = (char) (value & 0xff);
+    return this;
+  }
+
+  /**
+   * Appends a number as a zigzag varint, seven bits per byte from the lowest, so that small
+   * numbers of either sign take few bytes.
+   *
+   * @param value the number
+   * @return the encoder
+   */
+  private EventEncoder appendVarint(long value) {
+    long bits = (value << 1) ^ (value >> 63);
+    while ((bits & ~0x7fL) != 0) {
+      this.appendByte((int) (bits & 0x7f) | 0x80);
+      bits >>>= 7;
+    }
+    return this.appendByte((int) bits);
+  }
+
+  private EventEncoder appendString(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    this.appendVarint(bytes.length);
+    this.ensureCapacity(bytes.length);
+    for (byte value : bytes) {
+      this.chars[this.length++] = (char) (value & 0xff);
+    }
+    return this;
+  }
+}
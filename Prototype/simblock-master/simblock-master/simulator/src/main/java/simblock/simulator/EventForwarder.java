@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The type Event forwarder sends events to an HTTP ingest endpoint on a background thread, so that
+ * a slow or unreachable endpoint does not stall the simulation.
+ *
+ * <p>Events are queued in a bounded queue. When it is full, an event is either dropped or the
+ * simulation waits for room, depending on the backpressure policy. The thread sends the queued
+ * events in batches as NDJSON, one JSON object per line, reusing the connection between requests.
+ * A batch that cannot be delivered is dropped.
+ */
+public class EventForwarder {
+  /** The marker queued to stop the thread, compared by identity. */
+  private static final String END = new String();
+
+  private final URL url;
+  private final ArrayBlockingQueue<String> queue;
+  private final int batchSize;
+  private final boolean blockWhenFull;
+  private final int timeout;
+  private final Thread thread;
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /** Whether the last batch could not be delivered, to warn once per outage. */
+  private boolean failing = false;
+
+  /**
+   * Instantiates a new Event forwarder and starts its thread.
+   *
+   * @param url the URL of the endpoint
+   * @param queueSize the maximal number of queued events
+   * @param batchSize the maximal number of events of a request
+   * @param blockWhenFull whether to wait for room rather than drop an event when the queue is full
+   * @param timeout the connect and read timeout of a request in milliseconds
+   * @throws IllegalArgumentException if the URL is malformed
+   */
+  public EventForwarder(
+      String url, int queueSize, int batchSize, boolean blockWhenFull, int timeout) {
+    try {
+      this.url = new URL(url);
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.batchSize = batchSize;
+    this.blockWhenFull = blockWhenFull;
+    this.timeout = timeout;
+    this.thread = new Thread(this::forward, "event-forwarder");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues an event to be sent, or drops it if the queue is full and the policy is to drop.
+   *
+   * @param event the event as a JSON object on a single line
+   */
+  public void submit(String event) {
+    if (this.blockWhenFull) {
+      try {
+        this.queue.put(event);
+        return;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (this.queue.offer(event)) {
+      return;
+    }
+    this.dropped.incrementAndGet();
+  }
+
+  /**
+   * Sends the queued events and stops the thread, waiting at most the given time. The events not
+   * sent by then are dropped.
+   *
+   * @param wait the maximal time to wait in milliseconds
+   */
+  public void close(long wait) {
+    try {
+      if (this.queue.offer(END, wait, TimeUnit.MILLISECONDS)) {
+        this.thread.join(wait);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.thread.interrupt();
+  }
+
+  /**
+   * Gets the number of events sent.
+   *
+   * @return the number of events sent
+   */
+  public long getSent() {
+    return this.sent.get();
+  }
+
+  /**
+   * Gets the number of events dropped, because the queue was full or the endpoint failed.
+   *
+   * @return the number of events dropped
+   */
+  public long getDropped() {
+    return this.dropped.get() + this.queue.stream().filter(event -> event != END).count();
+  }
+
+  /**
+   * Gets the counters of the forwarder.
+   *
+   * @return the counters
+   */
+  public String getStatistics() {
+    return "sent=" + this.getSent() + ", dropped=" + this.getDropped();
+  }
+
+  /** Takes the queued events and sends them in batches until the end marker or an interrupt. */
+  private void forward() {
+    List<String> batch = new ArrayList<>(this.batchSize);
+    try {
+      while (true) {
+        batch.add(this.queue.take());
+        this.queue.drainTo(batch, this.batchSize - 1);
+        boolean end = batch.removeIf(event -> event == END);
+        if (!batch.isEmpty()) {
+          this.send(batch);
+        }
+        batch.clear();
+        if (end) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      this.dropped.addAndGet(batch.size());
+    }
+  }
+
+  /**
+   * Posts a batch of events as NDJSON, counting them as sent or dropped.
+   *
+   * @param batch the events
+   */
+  private void send(List<String> batch) {
+    StringBuilder body = new StringBuilder();
+    for (String event : batch) {
+      body.append(event.trim()).append('\n');
+    }
+    byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+    try {
+      HttpURLConnection conn = (HttpURLConnection) this.url.openConnection();
+      conn.setConnectTimeout(this.timeout);
+      conn.setReadTimeout(this.timeout);
+      conn.setDoOutput(true);
+      conn.setRequestMethod("POST");
+      conn.setRequestProperty("Content-Type", "application/x-ndjson; charset=utf-8");
+      conn.setFixedLengthStreamingMode(bytes.length);
+      try (OutputStream os = conn.getOutputStream()) {
+        os.write(bytes);
+      }
+      int status = conn.getResponseCode();
+      // Reading the response to the end keeps the connection alive for the next request
+      try (InputStream is = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+        if (is != null) {
+          byte[] buffer = new byte[1024];
+          while (is.read(buffer) >= 0) {
+            // Discarded
+          }
+        }
+      }
+      if (status >= 400) {
+        throw new IOException("HTTP " + status);
+      }
+      this.sent.addAndGet(batch.size());
+      this.failing = false;
+    } catch (IOException e) {
+      this.dropped.addAndGet(batch.size());
+      if (!this.failing) {
+        System.err.println("[WARN] Could not forward JSON to Flask: " + e.getMessage());
+        this.failing = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.settings.SimulationConfiguration.TASK_QUEUE;
+
+import java.util.ArrayList;
+import simblock.simulator.queue.AbstractTaskQueue;
+import simblock.simulator.queue.ScheduledTask;
+
+/**
+ * A Future Event List (FEL) with cancellation. The queue implementation is chosen by {@link
+ * simblock.settings.SimulationConfiguration#TASK_QUEUE}.
+ *
+ * <p>Cancelled tasks are not removed from the queue right away but skipped when they reach its
+ * head. Since cancelled minting tasks may lie far in the future, the queue is purged once they make
+ * up half of it.
+ *
+ * <p>The changes to the queue can be journaled, so that a speculative execution can be rolled back.
+ */
+class EventList {
+
+  /** A sorted queue of scheduled tasks. */
+  private final AbstractTaskQueue taskQueue = createTaskQueue(TASK_QUEUE);
+
+  /** The number of cancelled tasks still held by the queue. */
+  private int cancelledTasks = 0;
+
+  /** The minimal number of cancelled tasks to purge the queue. */
+  private static final int PURGE_THRESHOLD = 1024;
+
+  /** Whether the changes to the queue are journaled. */
+  private boolean journaling = false;
+
+  /** The tasks added since the journal was started. */
+  private final ArrayList<ScheduledTask> addedTasks = new ArrayList<>();
+
+  /** The tasks removed from the queue since the journal was started. */
+  private final ArrayList<ScheduledTask> removedTasks = new ArrayList<>();
+
+  /** The tasks cancelled since the journal was started. */
+  private final ArrayList<ScheduledTask> journaledCancellations = new ArrayList<>();
+
+  /**
+   * Instantiates the queue implementation.
+   *
+   * @param taskQueueName the class name of the {@link AbstractTaskQueue} implementation
+   * @return the task queue
+   */
+  private static AbstractTaskQueue createTaskQueue(String taskQueueName) {
+    try {
+      return (AbstractTaskQueue) Class.forName(taskQueueName).getConstructor().newInstance();
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Unknown task queue: " + taskQueueName, e);
+    }
+  }
+
+  /**
+   * Adds a scheduled task.
+   *
+   * @param scheduledTask the scheduled task
+   */
+  void add(ScheduledTask scheduledTask) {
+    // A task polled from another list, as the tasks of the setup handed over to the partitions
+    scheduledTask.setPolled(false);
+    this.taskQueue.add(scheduledTask);
+    if (this.journaling) {
+      this.addedTasks.add(scheduledTask);
+    }
+  }
+
+  /**
+   * Gets the next scheduled task that has not been cancelled, dropping cancelled tasks from the
+   * head of the queue.
+   *
+   * @return the scheduled task or null if the queue is empty
+   */
+  ScheduledTask peek() {
+    ScheduledTask scheduledTask = this.taskQueue.peek();
+    while (scheduledTask != null && scheduledTask.isCancelled()) {
+      this.taskQueue.poll();
+      this.cancelledTasks--;
+      if (this.journaling) {
+        this.removedTasks.add(scheduledTask);
+      }
+      scheduledTask = this.taskQueue.peek();
+    }
+    return scheduledTask;
+  }
+
+  /**
+   * Removes and returns the next scheduled task that has not been cancelled.
+   *
+   * @return the scheduled task or null if the queue is empty
+   */
+  ScheduledTask poll() {
+    if (this.peek() == null) {
+      return null;
+    }
+    ScheduledTask scheduledTask = this.taskQueue.poll();
+    scheduledTask.setPolled(true);
+    if (this.journaling) {
+      this.removedTasks.add(scheduledTask);
+    }
+    return scheduledTask;
+  }
+
+  /**
+   * Cancels a scheduled task. The task stays in the queue but will not be returned. Cancelling a
+   * task that has already been polled has no effect.
+   *
+   * @param scheduledTask the scheduled task
+   */
+  void cancel(ScheduledTask scheduledTask) {
+    if (scheduledTask.isCancelled() || scheduledTask.isPolled()) {
+      return;
+    }
+    scheduledTask.cancel();
+    this.cancelledTasks++;
+    if (this.journaling) {
+      this.journaledCancellations.add(scheduledTask);
+    } else if (this.cancelledTasks > PURGE_THRESHOLD
+        && this.cancelledTasks * 2 > this.taskQueue.size()) {
+      this.purgeCancelledTasks();
+    }
+  }
+
+  /** Starts journaling the changes to the queue. While journaling, the queue is not purged. */
+  void startJournal() {
+    this.journaling = true;
+  }
+
+  /** Stops journaling and keeps the changes. */
+  void commitJournal() {
+    this.journaling = false;
+    this.clearJournal();
+  }
+
+  /** Stops journaling and reverts the changes since the journal was started. */
+  void rollbackJournal() {
+    this.journaling = false;
+    for (ScheduledTask scheduledTask : this.removedTasks) {
+      scheduledTask.setPolled(false);
+      this.taskQueue.add(scheduledTask);
+      if (scheduledTask.isCancelled()) {
+        this.cancelledTasks++;
+      }
+    }
+    // Back in the queue, as the tasks cancelled and then removed have just been added again
+    for (ScheduledTask scheduledTask : this.journaledCancellations) {
+      scheduledTask.uncancel();
+      this.cancelledTasks--;
+    }
+    // Tasks added by the rolled back execution stay in the queue, but are never run
+    for (ScheduledTask scheduledTask : this.addedTasks) {
+      if (!scheduledTask.isCancelled()) {
+        scheduledTask.cancel();
+        this.cancelledTasks++;
+      }
+    }
+    this.clearJournal();
+  }
+
+  private void clearJournal() {
+    this.addedTasks.clear();
+    this.removedTasks.clear();
+    this.journaledCancellations.clear();
+  }
+
+  /** Rebuilds the queue without the cancelled tasks. */
+  private void purgeCancelledTasks() {
+    ArrayList<ScheduledTask> liveTasks = new ArrayList<>(this.taskQueue.size());
+    ScheduledTask scheduledTask;
+    while ((scheduledTask = this.taskQueue.poll()) != null) {
+      if (!scheduledTask.isCancelled()) {
+        liveTasks.add(scheduledTask);
+      }
+    }
+    for (ScheduledTask liveTask : liveTasks) {
+      this.taskQueue.add(liveTask);
+    }
+    this.cancelledTasks = 0;
+  }
+}
@@ -17,6 +17,7 @@
 
 package simblock.simulator;
 
+import static simblock.settings.NetworkConfiguration.REGION_LIST;
 import static simblock.settings.SimulationConfiguration.*;
 import static simblock.simulator.Network.getDegreeDistribution;
 import static simblock.simulator.Network.getRegionDistribution;
@@ -26,29 +27,32 @@ import static simblock.simulator.Timer.*;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
-import java.net.HttpURLConnection;
-import java.io.OutputStream;
-import java.net.URL;
 
 import simblock.block.Block;
 import simblock.node.Node;
+import simblock.simulator.sink.EventSinks;
+import simblock.simulator.sink.HttpEventSink;
 import simblock.task.AbstractMintingTask;
 import simblock.transaction.Transaction;
 
 /** The type Main represents the entry point. */
 public class Main {
-  public static Random random = new Random(10);
+  public static Random random =
+      PARALLEL_THREADS > 0 ? ParallelEngine.createRandom(10) : new Random(10);
   public static long simulationTime = 0;
   public static URI CONF_FILE_URI;
   public static URI OUT_FILE_URI;
@@ -57,6 +61,9 @@ public class Main {
     try {
       CONF_FILE_URI = ClassLoader.getSystemResource("simulator.conf").toURI();
       OUT_FILE_URI = CONF_FILE_URI.resolve(new URI("../output/"));
+      if (Shard.INDEX >= 0) {
+        OUT_FILE_URI = Shard.getOutputUri(OUT_FILE_URI, Shard.INDEX);
+      }
     } catch (URISyntaxException e) {
       e.printStackTrace();
     }
@@ -67,10 +74,28 @@ public class Main {
 
   static {
     try {
+      // The binary trace is written one character per byte
+      File outFile =
+          new File(OUT_FILE_URI.resolve(BINARY_TRACE ? "./trace.bin" : "./output.json"));
+      Charset charset = BINARY_TRACE ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+      Writer out = ASYNC_LOG
+          ? new AsyncLogWriter(
+              outFile.toPath(), charset, LOG_CHUNK_SIZE, LOG_RING_SIZE, LOG_FLUSH_INTERVAL)
+          : BINARY_TRACE
+          ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), charset))
+          : new BufferedWriter(new FileWriter(outFile));
+      if (Shard.INDEX >= 0) {
+        // Written with keys for the coordinator to merge
+        out = Shard.createWriter(out);
+      }
+      // The parallel engine records the output of each partition to write it in time order
       OUT_JSON_FILE = new PrintWriter(
-          new BufferedWriter(new FileWriter(new File(OUT_FILE_URI.resolve("./output.json")))));
-      STATIC_JSON_FILE = new PrintWriter(
-          new BufferedWriter(new FileWriter(new File(OUT_FILE_URI.resolve("./static.json")))));
+          PARALLEL_THREADS > 0 ? new ParallelEngine.PartitionedWriter(out) : out);
+      // The binary trace carries the regions
+      if (!BINARY_TRACE) {
+        STATIC_JSON_FILE = new PrintWriter(
+            new BufferedWriter(new FileWriter(new File(OUT_FILE_URI.resolve("./static.json")))));
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -80,11 +105,28 @@ public class Main {
     final long start = System.currentTimeMillis();
     setTargetInterval(INTERVAL);
 
-    OUT_JSON_FILE.print("[");
-    OUT_JSON_FILE.flush();
+    if (NUM_OF_SHARDS > 0 && Shard.INDEX < 0) {
+      printRegion();
+      new ShardCoordinator(NUM_OF_SHARDS).run();
+      simulationTime += System.currentTimeMillis() - start;
+      System.out.println(simulationTime);
+      return;
+    }
+
+    EventSinks.printStart(REGION_LIST);
+
+    if (BLOCK_STORE) {
+      try {
+        setBlockStore(new BlockStore(new File(OUT_FILE_URI.resolve("./blocks/")), false));
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
 
     // Log regions
-    printRegion();
+    if (!BINARY_TRACE) {
+      printRegion();
+    }
 
     // Setup network
     constructNetworkWithAllNodes(NUM_OF_NODES);
@@ -92,79 +134,52 @@ public class Main {
     // Generate some example transactions
     generateInitialTransactions();
 
-    int currentBlockHeight = 1;
-
-    while (getTask() != null) {
-      if (getTask() instanceof AbstractMintingTask) {
-        AbstractMintingTask task = (AbstractMintingTask) getTask();
-        if (task.getParent().getHeight() == currentBlockHeight) {
-          currentBlockHeight++;
-        }
-        if (currentBlockHeight > END_BLOCK_HEIGHT) {
-          break;
-        }
-        if (currentBlockHeight % 100 == 0 || currentBlockHeight == 2) {
-          writeGraph(currentBlockHeight);
+    if (PARALLEL_THREADS > 0) {
+      ParallelEngine engine =
+          new ParallelEngine(PARALLEL_THREADS, NUM_OF_SHARDS > 0 ? new Shard(NUM_OF_SHARDS) : null);
+      engine.run(Main::beforeMinting);
+      System.err.println("[PARALLEL] " + engine.getStatistics());
+    } else {
+      while (getTask() != null) {
+        if (getTask() instanceof AbstractMintingTask) {
+          if (!beforeMinting((AbstractMintingTask) getTask())) {
+            break;
+          }
         }
-
-        // Log mined block
-        logBlock(task.getParent());
+        runTask();
       }
-      runTask();
     }
 
     printAllPropagation();
 
-    Set<Block> blocks = new HashSet<>();
-    Block block = getSimulatedNodes().get(0).getBlock();
-    while (block.getParent() != null) {
-      blocks.add(block);
-      block = block.getParent();
-    }
-
-    Set<Block> orphans = new HashSet<>();
-    int averageOrphansSize = 0;
-    for (Node node : getSimulatedNodes()) {
-      orphans.addAll(node.getOrphans());
-      averageOrphansSize += node.getOrphans().size();
-    }
-    averageOrphansSize = averageOrphansSize / getSimulatedNodes().size();
-    blocks.addAll(orphans);
-
-    ArrayList<Block> blockList = new ArrayList<>(blocks);
-    blockList.sort(
-        (a, b) -> {
-          int order = Long.signum(a.getTime() - b.getTime());
-          if (order != 0)
-            return order;
-          return System.identityHashCode(a) - System.identityHashCode(b);
-        });
-
     try {
       FileWriter fw = new FileWriter(new File(OUT_FILE_URI.resolve("./blockList.txt")), false);
       PrintWriter pw = new PrintWriter(new BufferedWriter(fw));
-
-      for (Block b : blockList) {
-        if (!orphans.contains(b)) {
-          pw.println("OnChain : " + b.getHeight() + " : " + b);
-        } else {
-          pw.println("Orphan : " + b.getHeight() + " : " + b);
-        }
-      }
+      // The blocks are received in the order they are minted
+      getBlockTree().printBlockList(pw);
       pw.close();
     } catch (IOException ex) {
       ex.printStackTrace();
     }
+    System.err.println("[BLOCKS] " + getBlockTree().getStatistics());
+    if (getBlockStore() != null) {
+      try {
+        getBlockStore().close(getBlockTree());
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
 
-    OUT_JSON_FILE.print("{");
-    OUT_JSON_FILE.print("\"kind\":\"simulation-end\",");
-    OUT_JSON_FILE.print("\"content\":{");
-    OUT_JSON_FILE.print("\"timestamp\":" + getCurrentTime());
-    OUT_JSON_FILE.print("}");
-    OUT_JSON_FILE.print("}");
-    OUT_JSON_FILE.print("]");
+    EventSinks.printSimulationEnd(getCurrentTime());
+    EventSinks.close();
     OUT_JSON_FILE.close();
 
+    // After the sinks, which may forward through it
+    if (forwarder != null) {
+      forwarder.close(FORWARD_TIMEOUT);
+      System.err.println("[FORWARD] " + forwarder.getStatistics());
+    }
+
     long end = System.currentTimeMillis();
     simulationTime += end - start;
     System.out.println(simulationTime);
@@ -174,6 +189,31 @@ public class Main {
   // Helpers for Transactions / Blocks
   // -------------------------
 
+  /** The height of the next block, shared by the shards of a sharded simulation. */
+  static int currentBlockHeight = 1;
+
+  /**
+   * Keeps track of the block height before a minting task is run and logs the mined block.
+   *
+   * @param task the minting task
+   * @return false if the end block height is reached and the simulation ends
+   */
+  private static boolean beforeMinting(AbstractMintingTask task) {
+    if (task.getParent().getHeight() == currentBlockHeight) {
+      currentBlockHeight++;
+    }
+    if (currentBlockHeight > END_BLOCK_HEIGHT) {
+      return false;
+    }
+    if (currentBlockHeight % 100 == 0 || currentBlockHeight == 2) {
+      writeGraph(currentBlockHeight);
+    }
+
+    // Log mined block
+    logBlock(task.getParent());
+    return true;
+  }
+
   private static void generateInitialTransactions() {
     for (int i = 0; i < 10; i++) {
       int sender = random.nextInt(NUM_OF_NODES) + 1;
@@ -192,8 +232,7 @@ public class Main {
           + "}"
           + "}";
 
-      OUT_JSON_FILE.print(txJsonObj + ",");
-      OUT_JSON_FILE.flush();
+      EventSinks.printJson("add-tx", txJsonObj);
 
       postToFlaskJson(txJsonObj);
     }
@@ -211,8 +250,7 @@ public class Main {
         + "}"
         + "}";
 
-    OUT_JSON_FILE.print(blockJsonObj + ",");
-    OUT_JSON_FILE.flush();
+    EventSinks.printJson("add-block", blockJsonObj);
 
     postToFlaskJson(blockJsonObj);
   }
@@ -220,44 +258,60 @@ public class Main {
   // Attack logging helper
   public static void logAttack(String message) {
     String safe = message.replace("\"", "\\\"");
-    OUT_JSON_FILE.print("{");
-    OUT_JSON_FILE.print("\"kind\":\"attack-log\",");
-    OUT_JSON_FILE.print("\"content\":{");
-    OUT_JSON_FILE.print("\"timestamp\":" + getCurrentTime() + ",");
-    OUT_JSON_FILE.print("\"message\":\"" + safe + "\"");
-    OUT_JSON_FILE.print("}},");
-    OUT_JSON_FILE.flush();
+    String attackJsonObj = "{\"kind\":\"attack-log\",\"content\":{\"timestamp\":"
+        + getCurrentTime() + ",\"message\":\"" + safe + "\"}}";
+    EventSinks.printJson("attack-log", attackJsonObj);
 
     System.out.println("[ATTACK-LOG] " + message);
 
-    postToFlaskJson("{\"kind\":\"attack-log\",\"content\":{\"timestamp\":" + getCurrentTime()
-        + ",\"message\":\"" + safe + "\"}}");
+    postToFlaskJson(attackJsonObj);
   }
 
   // -------------------------
   // Forwarder to Flask
   // -------------------------
+
+  /**
+   * Sends the events to the Flask ingest endpoint without stalling the simulation, created with
+   * its thread when the first event is sent.
+   */
+  private static volatile EventForwarder forwarder = null;
+
+  /** Whether an {@link HttpEventSink} forwards the events logged to the sinks. */
+  private static final boolean FORWARDED_BY_SINK = EventSinks.getSink(HttpEventSink.class) != null;
+
+  /**
+   * Gets the forwarder to the Flask ingest endpoint shared by the simulation and the {@link
+   * HttpEventSink}, starting it on first use.
+   *
+   * @return the forwarder
+   */
+  public static EventForwarder getForwarder() {
+    EventForwarder result = forwarder;
+    if (result == null) {
+      synchronized (Main.class) {
+        result = forwarder;
+        if (result == null) {
+          result =
+              new EventForwarder(
+                  FLASK_INGEST_URL,
+                  FORWARD_QUEUE_SIZE,
+                  FORWARD_BATCH_SIZE,
+                  FORWARD_BLOCK_WHEN_FULL,
+                  FORWARD_TIMEOUT);
+          forwarder = result;
+        }
+      }
+    }
+    return result;
+  }
+
   public static void postToFlaskJson(String jsonObjectString) {
-    try {
-      URL url = new URL("http://127.0.0.1:5001/simblock_ingest");
-      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-      conn.setDoOutput(true);
-      conn.setRequestMethod("POST");
-      conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-
-      byte[] out = jsonObjectString.trim().getBytes("UTF-8");
-      conn.setFixedLengthStreamingMode(out.length);
-      conn.connect();
-      OutputStream os = conn.getOutputStream();
-      os.write(out);
-      os.flush();
-      os.close();
-
-      conn.getResponseCode();
-      conn.disconnect();
-    } catch (Exception e) {
-      System.err.println("[WARN] Could not forward JSON to Flask: " + e.getMessage());
+    // The sink already forwards the event logged with it
+    if (Shard.isSetupReplica() || FORWARDED_BY_SINK) {
+      return;
     }
+    getForwarder().submit(jsonObjectString);
   }
 
   // -------------------------
@@ -369,14 +423,7 @@ public class Main {
         addNode(node);
       }
 
-      OUT_JSON_FILE.print("{");
-      OUT_JSON_FILE.print("\"kind\":\"add-node\",");
-      OUT_JSON_FILE.print("\"content\":{");
-      OUT_JSON_FILE.print("\"timestamp\":0,");
-      OUT_JSON_FILE.print("\"node-id\":" + id + ",");
-      OUT_JSON_FILE.print("\"region-id\":" + regionList.get(id - 1));
-      OUT_JSON_FILE.print("}},");
-      OUT_JSON_FILE.flush();
+      EventSinks.printAddNode(id, regionList.get(id - 1));
     }
 
     for (Node node : getSimulatedNodes()) {
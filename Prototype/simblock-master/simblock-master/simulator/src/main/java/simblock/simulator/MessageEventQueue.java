@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.simulator.Network.getLatency;
+import static simblock.simulator.Simulator.getSimulatedNodes;
+import static simblock.simulator.Timer.getCurrentTime;
+
+import java.util.Arrays;
+import simblock.block.Block;
+import simblock.node.Node;
+import simblock.task.BlockMessageTask;
+import simblock.task.Task;
+
+/**
+ * The type Message event queue is an alternative to scheduling message tasks on the {@link Timer}
+ * when {@link simblock.settings.SimulationConfiguration#USE_MESSAGE_EVENT_QUEUE} is set. Messages
+ * are stored as records <em>(time, type, from, to, block)</em> in pooled arrays and ordered by a
+ * binary heap of record indices, so sending a message allocates no objects. The {@link Timer}
+ * interleaves these messages with its scheduled tasks and dispatches them through {@link
+ * #runNext()}.
+ *
+ * <p>Nodes are referenced by their ID, resolved through the list of simulated nodes. A record only
+ * references its block until it is released, so messages do not keep blocks alive. The records of
+ * rec and getblocktxn messages are handed to their receiver with {@link Node#receiveRequest(int)}
+ * instead of being released, and released once the requested block is sent.
+ */
+public class MessageEventQueue {
+  /** Inv message type, see {@link simblock.task.InvMessageTask}. */
+  public static final int INV = 0;
+  /** Rec message type, see {@link simblock.task.RecMessageTask}. */
+  public static final int REC = 1;
+  /** GetBlockTxn message type, see {@link simblock.task.GetBlockTxnMessageTask}. */
+  public static final int GET_BLOCK_TXN = 2;
+  /** Compact block message type, see {@link simblock.task.CmpctBlockMessageTask}. */
+  public static final int CMPCT_BLOCK = 3;
+  /** Block message type, see {@link BlockMessageTask}. */
+  public static final int BLOCK = 4;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** Arrival time of the message. */
+  private static long[] times = new long[INITIAL_CAPACITY];
+  /** Order of insertion, breaking ties between messages with the same arrival time. */
+  private static long[] sequences = new long[INITIAL_CAPACITY];
+  /** Transmission delay of the message. */
+  private static long[] intervals = new long[INITIAL_CAPACITY];
+  /** Message type. */
+  private static int[] types = new int[INITIAL_CAPACITY];
+  /** Sender node ID. */
+  private static int[] froms = new int[INITIAL_CAPACITY];
+  /** Receiver node ID. */
+  private static int[] tos = new int[INITIAL_CAPACITY];
+  /** Block of the message, null for a released record. */
+  private static Block[] blocks = new Block[INITIAL_CAPACITY];
+
+  /** Binary heap of the indices of queued records. */
+  private static int[] heap = new int[INITIAL_CAPACITY];
+  /** The number of queued records. */
+  private static int size = 0;
+
+  /** Stack of the indices of released records. */
+  private static int[] freeRecords = new int[INITIAL_CAPACITY];
+  /** The number of released records. */
+  private static int freeCount = 0;
+  /** The number of records ever allocated. */
+  private static int allocated = 0;
+
+  /** The next insertion order. */
+  private static long nextSequence = 0;
+
+  /** Task standing in for the queued message that is due next. */
+  private static final Task DISPATCH_TASK =
+      new Task() {
+        @Override
+        public long getInterval() {
+          return 0;
+        }
+
+        @Override
+        public void run() {
+          runNext();
+        }
+      };
+
+  /**
+   * Gets the task standing in for the queued message that is due next. Running it dispatches the
+   * message.
+   *
+   * @return the dispatch task
+   */
+  static Task getDispatchTask() {
+    return DISPATCH_TASK;
+  }
+
+  /**
+   * Gets the number of queued messages.
+   *
+   * @return the size
+   */
+  public static int size() {
+    return size;
+  }
+
+  /**
+   * Gets the arrival time of the message that is due next.
+   *
+   * @return the time, undefined if the queue is empty
+   */
+  static long peekTime() {
+    return times[heap[0]];
+  }
+
+  /**
+   * Sends a message. The arrival time is computed like the message tasks do: inv, rec and
+   * getblocktxn messages take the latency between the regions plus 10 milliseconds, block and
+   * compact block messages the latency plus the provided transmission delay.
+   *
+   * @param type the message type
+   * @param from the sender
+   * @param to the receiver
+   * @param block the block
+   * @param delay the transmission delay, only used by block and compact block messages
+   */
+  public static void put(int type, Node from, Node to, Block block, long delay) {
+    long latency = getLatency(from.getRegion(), to.getRegion());
+    long interval = type == BLOCK || type == CMPCT_BLOCK ? latency + delay : latency + 10;
+
+    int record = allocate();
+    times[record] = getCurrentTime() + interval;
+    sequences[record] = nextSequence++;
+    intervals[record] = interval;
+    types[record] = type;
+    froms[record] = from.getNodeID();
+    tos[record] = to.getNodeID();
+    blocks[record] = block;
+
+    // Sift up
+    int i = size++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!precedes(record, heap[parent])) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = record;
+  }
+
+  /** Removes the message that is due next from the queue and delivers it to its receiver. */
+  static void runNext() {
+    int record = heap[0];
+    int last = heap[--size];
+    // Sift down
+    int i = 0;
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < size && precedes(heap[right], heap[child])) {
+        child = right;
+      }
+      if (!precedes(heap[child], last)) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = last;
+
+    int type = types[record];
+    Node from = getSimulatedNodes().get(froms[record] - 1);
+    Node to = getSimulatedNodes().get(tos[record] - 1);
+    Block block = blocks[record];
+    long interval = intervals[record];
+    if (type == REC || type == GET_BLOCK_TXN) {
+      // The request is kept in the queue of the receiver until the block is sent
+      to.receiveRequest(record);
+      return;
+    }
+    release(record);
+
+    switch (type) {
+      case INV:
+        to.receiveInv(from, block);
+        break;
+      case CMPCT_BLOCK:
+        from.sendNextBlockMessage();
+        BlockMessageTask.printFlowBlock(from, to, block, interval);
+        to.receiveCmpctBlock(from, block);
+        break;
+      case BLOCK:
+        from.sendNextBlockMessage();
+        BlockMessageTask.printFlowBlock(from, to, block, interval);
+        to.receiveBlockMessage(block);
+        break;
+      default:
+        throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Gets the type of a message handed to its receiver.
+   *
+   * @param record the index of the record
+   * @return the type, {@link #REC} or {@link #GET_BLOCK_TXN}
+   */
+  public static int getType(int record) {
+    return types[record];
+  }
+
+  /**
+   * Gets the sender of a message handed to its receiver.
+   *
+   * @param record the index of the record
+   * @return the sender
+   */
+  public static Node getFrom(int record) {
+    return getSimulatedNodes().get(froms[record] - 1);
+  }
+
+  /**
+   * Gets the block of a message handed to its receiver.
+   *
+   * @param record the index of the record
+   * @return the block
+   */
+  public static Block getBlock(int record) {
+    return blocks[record];
+  }
+
+  /**
+   * Releases the record of a message, to be reused by a further message.
+   *
+   * @param record the index of the record
+   */
+  public static void release(int record) {
+    blocks[record] = null;
+    freeRecords[freeCount++] = record;
+  }
+
+  private static boolean precedes(int a, int b) {
+    return times[a] < times[b] || (times[a] == times[b] && sequences[a] < sequences[b]);
+  }
+
+  /**
+   * Takes a released record or allocates a new one, growing the arrays when needed.
+   *
+   * @return the index of the record
+   */
+  private static int allocate() {
+    if (freeCount > 0) {
+      return freeRecords[--freeCount];
+    }
+    if (allocated == times.length) {
+      int capacity = allocated * 2;
+      times = Arrays.copyOf(times, capacity);
+      sequences = Arrays.copyOf(sequences, capacity);
+      intervals = Arrays.copyOf(intervals, capacity);
+      types = Arrays.copyOf(types, capacity);
+      froms = Arrays.copyOf(froms, capacity);
+      tos = Arrays.copyOf(tos, capacity);
+      blocks = Arrays.copyOf(blocks, capacity);
+      heap = Arrays.copyOf(heap, capacity);
+      freeRecords = Arrays.copyOf(freeRecords, capacity);
+    }
+    return allocated++;
+  }
+}
@@ -25,6 +25,7 @@ import static simblock.settings.NetworkConfiguration.UPLOAD_BANDWIDTH;
 import static simblock.simulator.Main.STATIC_JSON_FILE;
 import static simblock.simulator.Main.random;
 
+import java.io.PrintWriter;
 import java.util.List;
 import simblock.settings.NetworkConfiguration;
 
@@ -44,10 +45,23 @@ public class Network {
    * @return the calculated latency
    */
   public static final long getLatency(int from, int to) {
+    return getLatency(from, to, random.nextDouble());
+  }
+
+  /**
+   * Gets the latency of the distribution of {@link #getLatency(int, int)} for a uniform variate,
+   * the latency decreasing as the variate increases.
+   *
+   * @param from the from latency
+   * @param to the to latency
+   * @param uniform the uniform variate in (0, 1]
+   * @return the calculated latency
+   */
+  public static final long getLatency(int from, int to, double uniform) {
     long mean = LATENCY[from][to];
     double shape = 0.2 * mean;
     double scale = mean - 5;
-    return Math.round(scale / Math.pow(random.nextDouble(), 1.0 / shape));
+    return Math.round(scale / Math.pow(uniform, 1.0 / shape));
   }
 
   /**
@@ -92,22 +106,32 @@ public class Network {
   /** Prints the currently active regions to outfile. */
   // TODO
   public static void printRegion() {
-    STATIC_JSON_FILE.print("{\"region\":[");
+    printRegion(STATIC_JSON_FILE, REGION_LIST);
+  }
+
+  /**
+   * Prints regions as static.json.
+   *
+   * @param out the writer, closed at the end
+   * @param regions the region list
+   */
+  public static void printRegion(PrintWriter out, List<String> regions) {
+    out.print("{\"region\":[");
 
     int id = 0;
-    for (; id < REGION_LIST.size() - 1; id++) {
-      STATIC_JSON_FILE.print("{");
-      STATIC_JSON_FILE.print("\"id\":" + id + ",");
-      STATIC_JSON_FILE.print("\"name\":\"" + REGION_LIST.get(id) + "\"");
-      STATIC_JSON_FILE.print("},");
+    for (; id < regions.size() - 1; id++) {
+      out.print("{");
+      out.print("\"id\":" + id + ",");
+      out.print("\"name\":\"" + regions.get(id) + "\"");
+      out.print("},");
     }
 
-    STATIC_JSON_FILE.print("{");
-    STATIC_JSON_FILE.print("\"id\":" + id + ",");
-    STATIC_JSON_FILE.print("\"name\":\"" + REGION_LIST.get(id) + "\"");
-    STATIC_JSON_FILE.print("}");
-    STATIC_JSON_FILE.print("]}");
-    STATIC_JSON_FILE.flush();
-    STATIC_JSON_FILE.close();
+    out.print("{");
+    out.print("\"id\":" + id + ",");
+    out.print("\"name\":\"" + regions.get(id) + "\"");
+    out.print("}");
+    out.print("]}");
+    out.flush();
+    out.close();
   }
 }
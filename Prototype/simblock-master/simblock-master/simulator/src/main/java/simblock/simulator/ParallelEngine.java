@@ -0,0 +1,607 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.settings.NetworkConfiguration.LATENCY;
+import static simblock.settings.SimulationConfiguration.ALGO;
+import static simblock.settings.SimulationConfiguration.PARALLEL_OPTIMISTIC;
+import static simblock.settings.SimulationConfiguration.PRUNE_DEPTH;
+import static simblock.settings.SimulationConfiguration.USE_MESSAGE_EVENT_QUEUE;
+import static simblock.simulator.Main.random;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import simblock.node.Node;
+import simblock.node.consensus.SampledProofOfStake;
+import simblock.node.consensus.SampledProofOfWork;
+import simblock.simulator.queue.ScheduledTask;
+import simblock.task.AbstractMintingTask;
+
+/**
+ * The type Parallel engine runs the simulation as a conservative parallel discrete event
+ * simulation. The nodes are partitioned by region, each {@link Partition} having its own FEL, time
+ * and random number stream, and the partitions run on a pool of threads.
+ *
+ * <p>A message between regions takes at least the lookahead, the lowest latency between two
+ * different regions (see {@link Network#getLatency(int, int)}). Starting from the earliest pending
+ * task, every partition can thus run all its tasks within one lookahead without waiting for the
+ * others. Messages to other partitions are delivered between these windows.
+ *
+ * <p>Minting tasks change the shared state of the simulation, they are run one at a time by the
+ * engine in the order of their time and partition. Log output and block arrivals are applied in
+ * time order by the engine as well. Since every partition draws from its own random number stream
+ * and simultaneous tasks are ordered by their sequence numbers, the results do not depend on the
+ * number of threads. They differ from the results of the sequential engine, which draws all random
+ * numbers from one stream.
+ *
+ * <p>With {@link simblock.settings.SimulationConfiguration#PARALLEL_OPTIMISTIC}, the partitions run
+ * speculatively beyond the lookahead in the manner of Breathing Time Buckets and roll back what
+ * turns out to be too far, see {@link #runOptimisticWindow(ExecutorService, long, long)}. The
+ * results are the same as with the conservative windows.
+ *
+ * <p>In a sharded simulation, the engine of each process only runs the partitions of its {@link
+ * Shard} and synchronizes with the other processes before every window.
+ */
+public class ParallelEngine {
+
+  /** The partitions, indexed by region. */
+  private final ArrayList<Partition> partitions = new ArrayList<>();
+
+  /** The number of threads. */
+  private final int numThreads;
+
+  /** The minimal delay of a message between two partitions in milliseconds. */
+  private final long lookahead;
+
+  /** The shard of a sharded simulation run by this process, or null. */
+  private final Shard shard;
+
+  /** The length of the next speculative window in milliseconds. */
+  private long optimisticWindow;
+
+  /** The number of tasks run, including the ones rolled back. */
+  private long executedTasks = 0;
+
+  /** The number of tasks run and not rolled back. */
+  private long committedTasks = 0;
+
+  /** The number of windows partitions ran speculatively. */
+  private long speculativeWindows = 0;
+
+  /** The number of speculative windows rolled back. */
+  private long rollbacks = 0;
+
+  /**
+   * Instantiates a new Parallel engine.
+   *
+   * @param numThreads the number of threads
+   */
+  public ParallelEngine(int numThreads) {
+    this(numThreads, null);
+  }
+
+  /**
+   * Instantiates a new Parallel engine running the partitions of a shard.
+   *
+   * @param numThreads the number of threads
+   * @param shard the shard or null to run all partitions
+   */
+  ParallelEngine(int numThreads, Shard shard) {
+    if (USE_MESSAGE_EVENT_QUEUE) {
+      throw new IllegalArgumentException(
+          "The parallel engine does not support the message event queue");
+    }
+    if (ALGO.equals(SampledProofOfWork.class.getName())
+        || ALGO.equals(SampledProofOfStake.class.getName())) {
+      throw new IllegalArgumentException("The parallel engine does not support " + ALGO);
+    }
+    if (PRUNE_DEPTH > 0) {
+      throw new IllegalArgumentException("The parallel engine does not support pruning");
+    }
+    if (shard != null && PARALLEL_OPTIMISTIC) {
+      throw new IllegalArgumentException("A shard does not support the optimistic mode");
+    }
+    this.numThreads = numThreads;
+    this.shard = shard;
+    this.lookahead = getMinimalLatency();
+    this.optimisticWindow = this.lookahead;
+  }
+
+  /**
+   * Gets the lowest latency between two different regions. {@link Network#getLatency(int, int)}
+   * draws from a Pareto distribution whose minimum is the configured latency minus 5 milliseconds.
+   *
+   * @return the latency in milliseconds or {@link Long#MAX_VALUE} if there is a single region
+   */
+  private static long getMinimalLatency() {
+    long latency = Long.MAX_VALUE;
+    for (int from = 0; from < LATENCY.length; from++) {
+      for (int to = 0; to < LATENCY.length; to++) {
+        if (from != to) {
+          latency = Math.min(latency, LATENCY[from][to] - 5);
+        }
+      }
+    }
+    return latency;
+  }
+
+  /**
+   * Gets the minimal delay of a message between two partitions.
+   *
+   * @return the lookahead in milliseconds
+   */
+  long getLookahead() {
+    return this.lookahead;
+  }
+
+  /**
+   * Gets the partition of the provided node.
+   *
+   * @param node the node
+   * @return the partition
+   */
+  Partition getPartition(Node node) {
+    return this.partitions.get(node.getRegion());
+  }
+
+  /**
+   * Runs the simulation until no task is left or a minting task is rejected.
+   *
+   * @param beforeMinting called before a minting task is run, returns false to end the simulation
+   */
+  public void run(Predicate<AbstractMintingTask> beforeMinting) {
+    long setupTasks = Timer.getScheduledTaskCount();
+    for (int index = 0; index < LATENCY.length; index++) {
+      PartitionedRandom partitionRandom = new PartitionedRandom(random.nextLong(), false);
+      this.partitions.add(
+          new Partition(this, index, LATENCY.length, partitionRandom, setupTasks));
+    }
+    // Hand over the tasks scheduled during the setup
+    ScheduledTask scheduledTask;
+    while ((scheduledTask = Timer.pollScheduledTask()) != null) {
+      Partition partition = this.getPartition(Partition.getOwner(scheduledTask.getTask()));
+      // Each shard keeps the tasks of its partitions
+      if (this.shard == null || this.shard.owns(partition.getIndex())) {
+        partition.receiveTask(scheduledTask);
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+    try {
+      while (true) {
+        for (Partition partition : this.partitions) {
+          partition.deliverOutboxes(this.partitions);
+        }
+        long nextTaskTime = Long.MAX_VALUE;
+        long nextMintingTime = Long.MAX_VALUE;
+        for (Partition partition : this.partitions) {
+          nextTaskTime = Math.min(nextTaskTime, partition.getNextTaskTime());
+          nextMintingTime = Math.min(nextMintingTime, getTime(partition.peekMintingTask()));
+        }
+        if (this.shard != null) {
+          // The messages to other shards are sent and the next tasks may be in other shards
+          if (!this.shard.synchronize(this.partitions, nextTaskTime, nextMintingTime)) {
+            break;
+          }
+          nextTaskTime = this.shard.getNextTaskTime();
+          nextMintingTime = this.shard.getNextMintingTime();
+        }
+        if (nextTaskTime == Long.MAX_VALUE && nextMintingTime == Long.MAX_VALUE) {
+          break;
+        }
+        // Nothing earlier can be produced anymore
+        this.applyEffects(Math.min(nextTaskTime, nextMintingTime));
+
+        if (nextMintingTime <= nextTaskTime) {
+          if (this.shard == null) {
+            if (!this.runMintingTasks(nextMintingTime, beforeMinting)) {
+              break;
+            }
+          } else if (this.shard.startMintingTurn(nextMintingTime)) {
+            // The coordinator ends the simulation in all shards
+            this.shard.endMintingTurn(this.runMintingTasks(nextMintingTime, beforeMinting));
+          }
+        } else if (PARALLEL_OPTIMISTIC) {
+          this.runOptimisticWindow(executor, nextTaskTime, nextMintingTime);
+        } else {
+          long windowEnd = getWindowEnd(nextTaskTime, this.lookahead, nextMintingTime);
+          ArrayList<Partition> running = this.startWindow(windowEnd);
+          this.runWindows(executor, running);
+          for (Partition partition : running) {
+            this.executedTasks += partition.getWindowTasks();
+          }
+          this.committedTasks = this.executedTasks;
+        }
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      executor.shutdown();
+    }
+
+    this.applyEffects(Long.MAX_VALUE);
+    long time = 0;
+    for (Partition partition : this.partitions) {
+      time = Math.max(time, partition.getCurrentTime());
+    }
+    if (this.shard != null) {
+      time = this.shard.finish();
+    }
+    Timer.setCurrentTime(time);
+  }
+
+  /**
+   * Runs the partitions speculatively up to the end of the window, then finds the event horizon:
+   * the earliest time a held message or a minting task may affect another partition. The
+   * partitions that ran tasks at or after the event horizon are rolled back and run again up to
+   * it. The window grows while there are no rollbacks and shrinks when there are.
+   *
+   * @param executor the thread pool
+   * @param nextTaskTime the time of the earliest task
+   * @param nextMintingTime the time of the earliest minting task
+   * @throws InterruptedException if interrupted while waiting
+   * @throws ExecutionException if a partition failed
+   */
+  private void runOptimisticWindow(
+      ExecutorService executor, long nextTaskTime, long nextMintingTime)
+      throws InterruptedException, ExecutionException {
+    long windowEnd = getWindowEnd(nextTaskTime, this.optimisticWindow, nextMintingTime);
+    ArrayList<Partition> running = this.startWindow(windowEnd);
+    for (Partition partition : running) {
+      partition.checkpoint();
+    }
+    this.runWindows(executor, running);
+
+    long eventHorizon = windowEnd;
+    for (Partition partition : this.partitions) {
+      eventHorizon = Math.min(eventHorizon, partition.getEarliestOutgoingTime());
+      // The minting task is run by the engine, its messages take at least the lookahead
+      long mintingTime = getTime(partition.peekMintingTask());
+      eventHorizon = getWindowEnd(mintingTime, this.lookahead, eventHorizon);
+    }
+
+    ArrayList<Partition> rolledBack = new ArrayList<>();
+    for (Partition partition : running) {
+      this.executedTasks += partition.getWindowTasks();
+      if (partition.getWindowTasks() > 0 && partition.getCurrentTime() >= eventHorizon) {
+        partition.rollback();
+        partition.setWindowEnd(eventHorizon);
+        rolledBack.add(partition);
+      } else {
+        partition.commit();
+        this.committedTasks += partition.getWindowTasks();
+      }
+    }
+    this.speculativeWindows += running.size();
+    this.rollbacks += rolledBack.size();
+
+    this.runWindows(executor, rolledBack);
+    for (Partition partition : rolledBack) {
+      this.executedTasks += partition.getWindowTasks();
+      this.committedTasks += partition.getWindowTasks();
+    }
+
+    if (rolledBack.isEmpty()) {
+      this.optimisticWindow =
+          this.optimisticWindow > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : this.optimisticWindow * 2;
+    } else {
+      this.optimisticWindow = Math.max(this.lookahead, this.optimisticWindow / 2);
+    }
+  }
+
+  /**
+   * Sets the end of the window of all partitions.
+   *
+   * @param windowEnd the end of the window, exclusive
+   * @return the partitions with tasks to run within the window
+   */
+  private ArrayList<Partition> startWindow(long windowEnd) {
+    ArrayList<Partition> running = new ArrayList<>();
+    for (Partition partition : this.partitions) {
+      partition.setWindowEnd(windowEnd);
+      if (partition.getNextTaskTime() < windowEnd) {
+        running.add(partition);
+      }
+    }
+    return running;
+  }
+
+  /**
+   * Runs the provided partitions up to the end of their windows on the thread pool.
+   *
+   * @param executor the thread pool
+   * @param running the partitions
+   * @throws InterruptedException if interrupted while waiting
+   * @throws ExecutionException if a partition failed
+   */
+  private void runWindows(ExecutorService executor, ArrayList<Partition> running)
+      throws InterruptedException, ExecutionException {
+    if (running.size() == 1) {
+      running.get(0).runWindow();
+      return;
+    }
+    ArrayList<Callable<Void>> windows = new ArrayList<>();
+    for (Partition partition : running) {
+      windows.add(
+          () -> {
+            partition.runWindow();
+            return null;
+          });
+    }
+    for (Future<Void> window : executor.invokeAll(windows)) {
+      window.get();
+    }
+  }
+
+  /**
+   * Adds the length of a window to its start, without exceeding the provided limit.
+   *
+   * @param start the start of the window
+   * @param length the length of the window
+   * @param limit the limit
+   * @return the end of the window
+   */
+  private static long getWindowEnd(long start, long length, long limit) {
+    return limit - start > length ? start + length : limit;
+  }
+
+  /**
+   * Gets the time of a scheduled task.
+   *
+   * @param scheduledTask the scheduled task or null
+   * @return the time in milliseconds or {@link Long#MAX_VALUE} if there is no task
+   */
+  private static long getTime(ScheduledTask scheduledTask) {
+    return scheduledTask == null ? Long.MAX_VALUE : scheduledTask.getScheduledTime();
+  }
+
+  /**
+   * Gets the counters of the run: the number of tasks run and committed, their ratio as
+   * efficiency, and for the optimistic mode the share of speculative windows rolled back.
+   *
+   * @return the counters
+   */
+  public String getStatistics() {
+    double efficiency =
+        this.executedTasks == 0 ? 1 : (double) this.committedTasks / this.executedTasks;
+    double rollbackRate =
+        this.speculativeWindows == 0 ? 0 : (double) this.rollbacks / this.speculativeWindows;
+    return "executed tasks: "
+        + this.executedTasks
+        + ", committed tasks: "
+        + this.committedTasks
+        + ", efficiency: "
+        + efficiency
+        + ", speculative windows: "
+        + this.speculativeWindows
+        + ", rollbacks: "
+        + this.rollbacks
+        + ", rollback rate: "
+        + rollbackRate;
+  }
+
+  /**
+   * Runs the minting tasks scheduled at the provided time, in the order of the partitions.
+   *
+   * @param time the time in milliseconds
+   * @param beforeMinting called before a minting task is run, returns false to end the simulation
+   * @return false if the simulation ends
+   */
+  private boolean runMintingTasks(long time, Predicate<AbstractMintingTask> beforeMinting) {
+    for (Partition partition : this.partitions) {
+      ScheduledTask mintingTask;
+      while ((mintingTask = partition.peekMintingTask()) != null
+          && mintingTask.getScheduledTime() == time) {
+        if (!partition.runMintingTask(beforeMinting)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Applies the recorded effects of all partitions before the provided time, in time order.
+   * Simultaneous effects are applied in the order of the partitions.
+   *
+   * @param limit the time in milliseconds, exclusive
+   */
+  private void applyEffects(long limit) {
+    while (true) {
+      Partition next = null;
+      long nextTime = limit;
+      for (Partition partition : this.partitions) {
+        long time = partition.getNextEffectTime();
+        if (time < nextTime) {
+          next = partition;
+          nextTime = time;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      if (this.shard != null) {
+        this.shard.setOutputKey(nextTime, next.getIndex());
+      }
+      next.applyNextEffect();
+    }
+  }
+
+  /**
+   * Creates the random number stream shared by the simulation, see {@link Main#random}.
+   *
+   * @param seed the seed
+   * @return the random number stream
+   */
+  static Random createRandom(long seed) {
+    return new PartitionedRandom(seed, true);
+  }
+
+  /**
+   * A random number stream drawing the same numbers as {@link Random}, with a state that can be
+   * saved and restored. The shared stream draws from the stream of the running partition, if any.
+   */
+  static class PartitionedRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    /** Whether this is the shared stream. */
+    private final boolean shared;
+
+    /** The state of the linear congruential generator, set by the constructor of Random. */
+    private long seed;
+
+    /** The second of the two last drawn Gaussian values, if it has not been returned yet. */
+    private double nextNextGaussian;
+
+    private boolean haveNextNextGaussian;
+
+    /**
+     * Instantiates a new Partitioned random.
+     *
+     * @param seed the seed
+     * @param shared whether this is the shared stream
+     */
+    PartitionedRandom(long seed, boolean shared) {
+      super(seed);
+      this.shared = shared;
+    }
+
+    private PartitionedRandom getStream() {
+      Partition partition = this.shared ? Partition.current() : null;
+      return partition == null ? null : partition.getRandom();
+    }
+
+    /**
+     * Copies the state of another stream.
+     *
+     * @param other the other stream
+     */
+    void copyFrom(PartitionedRandom other) {
+      this.seed = other.seed;
+      this.nextNextGaussian = other.nextNextGaussian;
+      this.haveNextNextGaussian = other.haveNextNextGaussian;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+      this.seed = (seed ^ MULTIPLIER) & MASK;
+      this.haveNextNextGaussian = false;
+    }
+
+    @Override
+    protected int next(int bits) {
+      PartitionedRandom stream = this.getStream();
+      if (stream != null) {
+        return stream.next(bits);
+      }
+      this.seed = (this.seed * MULTIPLIER + ADDEND) & MASK;
+      return (int) (this.seed >>> (48 - bits));
+    }
+
+    @Override
+    public double nextGaussian() {
+      PartitionedRandom stream = this.getStream();
+      if (stream != null) {
+        return stream.nextGaussian();
+      }
+      // The polar method, as implemented by Random
+      if (this.haveNextNextGaussian) {
+        this.haveNextNextGaussian = false;
+        return this.nextNextGaussian;
+      }
+      double v1;
+      double v2;
+      double s;
+      do {
+        v1 = 2 * this.nextDouble() - 1;
+        v2 = 2 * this.nextDouble() - 1;
+        s = v1 * v1 + v2 * v2;
+      } while (s >= 1 || s == 0);
+      double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+      this.nextNextGaussian = v2 * multiplier;
+      this.haveNextNextGaussian = true;
+      return v1 * multiplier;
+    }
+  }
+
+  /**
+   * A writer that records the output of the running partition, if any, as an effect. Otherwise the
+   * output is written right away.
+   */
+  static class PartitionedWriter extends Writer {
+    /** The underlying writer. */
+    private final Writer out;
+
+    /**
+     * Instantiates a new Partitioned writer.
+     *
+     * @param out the underlying writer
+     */
+    PartitionedWriter(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      Partition partition = Partition.current();
+      if (partition != null) {
+        partition.print(cbuf, off, len);
+      } else {
+        this.out.write(cbuf, off, len);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      Partition partition = Partition.current();
+      if (partition != null) {
+        partition.print(str, off, off + len);
+      } else {
+        this.out.write(str, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (Partition.current() == null) {
+        this.out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.out.close();
+    }
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.settings.SimulationConfiguration.PARALLEL_THREADS;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import simblock.block.Block;
+import simblock.node.Node;
+import simblock.simulator.queue.ScheduledTask;
+import simblock.task.AbstractMessageTask;
+import simblock.task.AbstractMintingTask;
+import simblock.task.BlockSentTask;
+import simblock.task.Task;
+
+/**
+ * The type Partition holds the share of the simulation of the nodes in one region when the {@link
+ * ParallelEngine} runs: a FEL, a list of minting tasks, the current time and a random number
+ * stream. While a partition runs, the {@link Timer}, {@link Main#random}, {@link
+ * Main#OUT_JSON_FILE} and {@link Simulator#arriveBlock(Block, Node)} refer to it.
+ *
+ * <p>Messages to nodes of other partitions are held in outboxes until the engine delivers them.
+ * Log output and block arrivals are recorded as effects with their time, to be applied in time
+ * order by the engine.
+ *
+ * <p>A partition can run speculatively: it saves a checkpoint, journals the changes to its queues
+ * and saves the state of every node before running its first task. It then either commits or
+ * rolls back to the checkpoint. As the messages stay in the outboxes until the engine decides, a
+ * rollback never has to be propagated to other partitions.
+ */
+class Partition {
+
+  /** The partition the current thread runs, if any. */
+  private static final ThreadLocal<Partition> CURRENT = new ThreadLocal<>();
+
+  /** The engine. */
+  private final ParallelEngine engine;
+
+  /** The index of the partition, equal to the region of its nodes. */
+  private final int index;
+
+  /** The FEL of the partition, without minting tasks. */
+  private final EventList eventList = new EventList();
+
+  /** The minting tasks of the nodes of the partition, run by the engine. */
+  private final EventList mintingList = new EventList();
+
+  /** The messages to the nodes of other partitions, indexed by partition. */
+  private final ArrayList<ArrayList<ScheduledTask>> outboxes = new ArrayList<>();
+
+  /** The random number stream of the partition. */
+  private final ParallelEngine.PartitionedRandom random;
+
+  /**
+   * The number of tasks scheduled by the partition, starting from the number of tasks scheduled
+   * during the setup so that the sequence numbers do not collide with theirs.
+   */
+  private long scheduledTasks;
+
+  /** The current time of the partition in milliseconds. */
+  private long currentTime;
+
+  /** Tasks at this time or later are not run by {@link #runWindow()}. */
+  private long windowEnd;
+
+  /** The log output of the running task not yet recorded as an effect. */
+  private final StringBuilder output = new StringBuilder();
+
+  /** The recorded effects not applied yet, in time order. */
+  private final ArrayDeque<Effect> effects = new ArrayDeque<>();
+
+  /** The number of tasks run by the last call to {@link #runWindow()}. */
+  private long windowTasks = 0;
+
+  /** Whether the partition runs speculatively. */
+  private boolean speculative = false;
+
+  /** The states of the nodes saved since the checkpoint. */
+  private final HashMap<Node, Node.State> savedNodes = new HashMap<>();
+
+  /** The state of the random number stream at the checkpoint. */
+  private final ParallelEngine.PartitionedRandom savedRandom =
+      new ParallelEngine.PartitionedRandom(0, false);
+
+  /** The number of scheduled tasks at the checkpoint. */
+  private long savedScheduledTasks;
+
+  /** The time at the checkpoint. */
+  private long savedCurrentTime;
+
+  /** The number of effects at the checkpoint. */
+  private int savedEffects;
+
+  /**
+   * Instantiates a new Partition.
+   *
+   * @param engine the engine
+   * @param index the index of the partition
+   * @param numPartitions the number of partitions
+   * @param random the random number stream
+   * @param setupTasks the number of tasks scheduled during the setup
+   */
+  Partition(
+      ParallelEngine engine,
+      int index,
+      int numPartitions,
+      ParallelEngine.PartitionedRandom random,
+      long setupTasks) {
+    this.engine = engine;
+    this.index = index;
+    this.random = random;
+    this.scheduledTasks = setupTasks;
+    this.currentTime = Timer.getCurrentTime();
+    for (int i = 0; i < numPartitions; i++) {
+      this.outboxes.add(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Gets the partition the current thread runs.
+   *
+   * @return the partition or null if the current thread does not run a partition
+   */
+  static Partition current() {
+    return PARALLEL_THREADS > 0 ? CURRENT.get() : null;
+  }
+
+  /**
+   * Gets the index of the partition.
+   *
+   * @return the index
+   */
+  int getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Gets the random number stream of the partition.
+   *
+   * @return the random number stream
+   */
+  ParallelEngine.PartitionedRandom getRandom() {
+    return this.random;
+  }
+
+  /**
+   * Gets the current time of the partition.
+   *
+   * @return the time in milliseconds
+   */
+  long getCurrentTime() {
+    return this.currentTime;
+  }
+
+  /**
+   * Sets the end of the window the partition may run ahead to.
+   *
+   * @param windowEnd the end of the window, exclusive
+   */
+  void setWindowEnd(long windowEnd) {
+    this.windowEnd = windowEnd;
+  }
+
+  /**
+   * Gets the time of the next task of the FEL.
+   *
+   * @return the time or {@link Long#MAX_VALUE} if the FEL is empty
+   */
+  long getNextTaskTime() {
+    ScheduledTask scheduledTask = this.eventList.peek();
+    return scheduledTask == null ? Long.MAX_VALUE : scheduledTask.getScheduledTime();
+  }
+
+  /**
+   * Gets the next minting task.
+   *
+   * @return the scheduled minting task or null if there is none
+   */
+  ScheduledTask peekMintingTask() {
+    return this.mintingList.peek();
+  }
+
+  /**
+   * Schedules a task from within the partition. Minting tasks are kept apart for the engine,
+   * messages to the nodes of other partitions go to the outboxes.
+   *
+   * @param task the task
+   * @param time the time in milliseconds
+   * @return the handle to cancel the task
+   */
+  ScheduledTask putTask(Task task, long time) {
+    ScheduledTask scheduledTask = new ScheduledTask(task, time, this.nextSequence());
+    if (task instanceof AbstractMintingTask) {
+      this.mintingList.add(scheduledTask);
+      // The engine runs the minting task, the partition has to stop before it
+      this.windowEnd = Math.min(this.windowEnd, time);
+      return scheduledTask;
+    }
+    Partition target = this;
+    if (task instanceof AbstractMessageTask) {
+      target = this.engine.getPartition(((AbstractMessageTask) task).getTo());
+    }
+    if (target == this) {
+      this.eventList.add(scheduledTask);
+    } else {
+      if (time - this.currentTime < this.engine.getLookahead()) {
+        throw new IllegalStateException(
+            "Message delay " + (time - this.currentTime) + " ms below the lookahead");
+      }
+      this.outboxes.get(target.index).add(scheduledTask);
+    }
+    return scheduledTask;
+  }
+
+  /**
+   * Removes the next task of the FEL, to hand it over to the process that runs the partition in a
+   * sharded simulation.
+   *
+   * @return the scheduled task or null if the FEL is empty
+   */
+  ScheduledTask pollTask() {
+    return this.eventList.poll();
+  }
+
+  /**
+   * Adds a task handed over from the setup or another partition.
+   *
+   * @param scheduledTask the scheduled task
+   */
+  void receiveTask(ScheduledTask scheduledTask) {
+    if (scheduledTask.getTask() instanceof AbstractMintingTask) {
+      this.mintingList.add(scheduledTask);
+    } else {
+      this.eventList.add(scheduledTask);
+    }
+  }
+
+  /**
+   * Cancels a task scheduled by the partition.
+   *
+   * @param scheduledTask the handle of the task
+   */
+  void removeTask(ScheduledTask scheduledTask) {
+    if (scheduledTask.getTask() instanceof AbstractMintingTask) {
+      this.mintingList.cancel(scheduledTask);
+    } else {
+      this.eventList.cancel(scheduledTask);
+    }
+  }
+
+  /**
+   * Moves the messages held in the outboxes to the partitions of their receivers.
+   *
+   * @param partitions all partitions
+   */
+  void deliverOutboxes(ArrayList<Partition> partitions) {
+    for (int i = 0; i < this.outboxes.size(); i++) {
+      ArrayList<ScheduledTask> outbox = this.outboxes.get(i);
+      for (ScheduledTask scheduledTask : outbox) {
+        partitions.get(i).eventList.add(scheduledTask);
+      }
+      outbox.clear();
+    }
+  }
+
+  /** Runs the tasks of the FEL scheduled before the end of the window. */
+  void runWindow() {
+    CURRENT.set(this);
+    this.windowTasks = 0;
+    try {
+      ScheduledTask scheduledTask;
+      while ((scheduledTask = this.eventList.peek()) != null
+          && scheduledTask.getScheduledTime() < this.windowEnd) {
+        this.eventList.poll();
+        if (this.speculative) {
+          Node owner = getOwner(scheduledTask.getTask());
+          if (!this.savedNodes.containsKey(owner)) {
+            this.savedNodes.put(owner, owner.saveState());
+          }
+        }
+        this.currentTime = scheduledTask.getScheduledTime();
+        scheduledTask.getTask().run();
+        this.recordOutput();
+        this.windowTasks++;
+      }
+    } finally {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Gets the number of tasks run by the last call to {@link #runWindow()}.
+   *
+   * @return the number of tasks
+   */
+  long getWindowTasks() {
+    return this.windowTasks;
+  }
+
+  /**
+   * Gets the earliest arrival time of the messages held in the outboxes.
+   *
+   * @return the time or {@link Long#MAX_VALUE} if there are no messages
+   */
+  long getEarliestOutgoingTime() {
+    long time = Long.MAX_VALUE;
+    for (ArrayList<ScheduledTask> outbox : this.outboxes) {
+      for (ScheduledTask scheduledTask : outbox) {
+        time = Math.min(time, scheduledTask.getScheduledTime());
+      }
+    }
+    return time;
+  }
+
+  /** Saves a checkpoint and starts to run speculatively. The outboxes are expected to be empty. */
+  void checkpoint() {
+    this.speculative = true;
+    this.savedRandom.copyFrom(this.random);
+    this.savedScheduledTasks = this.scheduledTasks;
+    this.savedCurrentTime = this.currentTime;
+    this.savedEffects = this.effects.size();
+    this.eventList.startJournal();
+    this.mintingList.startJournal();
+  }
+
+  /** Keeps the changes since the checkpoint. */
+  void commit() {
+    this.speculative = false;
+    this.savedNodes.clear();
+    this.eventList.commitJournal();
+    this.mintingList.commitJournal();
+  }
+
+  /** Reverts the changes since the checkpoint. */
+  void rollback() {
+    this.speculative = false;
+    for (Map.Entry<Node, Node.State> savedNode : this.savedNodes.entrySet()) {
+      savedNode.getKey().restoreState(savedNode.getValue());
+    }
+    this.savedNodes.clear();
+    this.random.copyFrom(this.savedRandom);
+    this.scheduledTasks = this.savedScheduledTasks;
+    this.currentTime = this.savedCurrentTime;
+    while (this.effects.size() > this.savedEffects) {
+      this.effects.pollLast();
+    }
+    for (ArrayList<ScheduledTask> outbox : this.outboxes) {
+      outbox.clear();
+    }
+    this.eventList.rollbackJournal();
+    this.mintingList.rollbackJournal();
+  }
+
+  /**
+   * Runs the next minting task. The log output of the provided callback is recorded as well, so
+   * that it is applied in the order of the partitions with the other effects at that time.
+   *
+   * @param beforeMinting called before the minting task is run, returns false to end the simulation
+   * @return false if the simulation ends
+   */
+  boolean runMintingTask(Predicate<AbstractMintingTask> beforeMinting) {
+    ScheduledTask scheduledTask = this.mintingList.peek();
+    CURRENT.set(this);
+    try {
+      long previousTime = this.currentTime;
+      this.currentTime = scheduledTask.getScheduledTime();
+      if (!beforeMinting.test((AbstractMintingTask) scheduledTask.getTask())) {
+        // The simulation ends with the last task run
+        this.currentTime = previousTime;
+        return false;
+      }
+      this.mintingList.poll();
+      scheduledTask.getTask().run();
+      return true;
+    } finally {
+      this.recordOutput();
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Gets the node whose state the provided task changes, and whose partition runs it.
+   *
+   * @param task the task
+   * @return the node
+   */
+  static Node getOwner(Task task) {
+    if (task instanceof AbstractMintingTask) {
+      return ((AbstractMintingTask) task).getMinter();
+    }
+    if (task instanceof AbstractMessageTask) {
+      return ((AbstractMessageTask) task).getTo();
+    }
+    if (task instanceof BlockSentTask) {
+      return ((BlockSentTask) task).getFrom();
+    }
+    throw new IllegalStateException("Cannot assign " + task + " to a partition");
+  }
+
+  /**
+   * Appends log output of the running task.
+   *
+   * @param text the output
+   * @param start the index of the first character
+   * @param end the index after the last character
+   */
+  void print(CharSequence text, int start, int end) {
+    this.output.append(text, start, end);
+  }
+
+  /**
+   * Appends log output of the running task.
+   *
+   * @param text the characters of the output
+   * @param offset the index of the first character
+   * @param length the number of characters
+   */
+  void print(char[] text, int offset, int length) {
+    this.output.append(text, offset, length);
+  }
+
+  /**
+   * Records the arrival of a block at a node as an effect.
+   *
+   * @param block the block
+   * @param node the node
+   */
+  void recordArrival(Block block, Node node) {
+    this.recordOutput();
+    this.effects.add(new Effect(this.currentTime, null, block, node));
+  }
+
+  /** Records the pending log output as an effect. */
+  private void recordOutput() {
+    if (this.output.length() > 0) {
+      this.effects.add(new Effect(this.currentTime, this.output.toString(), null, null));
+      this.output.setLength(0);
+    }
+  }
+
+  /**
+   * Gets the time of the next effect not applied yet.
+   *
+   * @return the time or {@link Long#MAX_VALUE} if there is none
+   */
+  long getNextEffectTime() {
+    Effect effect = this.effects.peek();
+    return effect == null ? Long.MAX_VALUE : effect.time;
+  }
+
+  /** Applies the next effect outside of the partition. */
+  void applyNextEffect() {
+    Effect effect = this.effects.poll();
+    Timer.setCurrentTime(effect.time);
+    if (effect.output != null) {
+      Main.OUT_JSON_FILE.print(effect.output);
+    } else {
+      Simulator.arriveBlock(effect.block, effect.node);
+    }
+  }
+
+  /**
+   * Draws the next sequence number. The numbers of all partitions are distinct, so simultaneous
+   * tasks are run in the same order however the partitions are scheduled on threads.
+   *
+   * @return the sequence number
+   */
+  private long nextSequence() {
+    return this.scheduledTasks++ * this.outboxes.size() + this.index;
+  }
+
+  /** Log output or the arrival of a block at a node, recorded at a time. */
+  private static class Effect {
+    private final long time;
+    private final String output;
+    private final Block block;
+    private final Node node;
+
+    private Effect(long time, String output, Block block, Node node) {
+      this.time = time;
+      this.output = output;
+      this.block = block;
+      this.node = node;
+    }
+  }
+}
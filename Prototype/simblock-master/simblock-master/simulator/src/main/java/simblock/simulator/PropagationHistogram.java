@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+/**
+ * The type Propagation histogram counts propagation times in log-bucketed buckets of fixed memory,
+ * in the manner of an HDR histogram: the times below 2^bits have a bucket each, and every further
+ * power of two is split into 2^(bits - 1) buckets, so that a percentile is within a relative error
+ * of 2^(1 - bits) of the recorded time.
+ */
+class PropagationHistogram {
+  /** The number of significant bits of a bucket. */
+  private final int bits;
+
+  /** The number of buckets of a power of two beyond the first 2^bits times. */
+  private final int half;
+
+  /** The number of recorded times by bucket. */
+  private final long[] counts;
+
+  /** The number of recorded times. */
+  private long total = 0;
+
+  /** The sum of the recorded times. */
+  private long sum = 0;
+
+  /** The largest recorded time. */
+  private long max = 0;
+
+  /**
+   * Instantiates a new Propagation histogram.
+   *
+   * @param bits the number of significant bits of a bucket, at least 2
+   */
+  PropagationHistogram(int bits) {
+    if (bits < 2 || bits > 32) {
+      throw new IllegalArgumentException("Unsupported histogram precision: " + bits);
+    }
+    this.bits = bits;
+    this.half = 1 << (bits - 1);
+    this.counts = new long[(65 - bits) * this.half];
+  }
+
+  /**
+   * Records a time, negative times being counted as 0.
+   *
+   * @param time the time in milliseconds
+   */
+  void record(long time) {
+    time = Math.max(time, 0);
+    this.counts[this.indexOf(time)]++;
+    this.total++;
+    this.sum += time;
+    this.max = Math.max(this.max, time);
+  }
+
+  /**
+   * Gets the number of recorded times.
+   *
+   * @return the number of recorded times
+   */
+  long getCount() {
+    return this.total;
+  }
+
+  /**
+   * Gets the mean of the recorded times.
+   *
+   * @return the mean or 0 if no time is recorded
+   */
+  double getMean() {
+    return this.total == 0 ? 0 : (double) this.sum / this.total;
+  }
+
+  /**
+   * Gets the largest recorded time.
+   *
+   * @return the largest time or 0 if no time is recorded
+   */
+  long getMax() {
+    return this.max;
+  }
+
+  /**
+   * Gets the time below which a percentage of the recorded times are, as the largest time of its
+   * bucket.
+   *
+   * @param percentile the percentage between 0 and 100
+   * @return the time or 0 if no time is recorded
+   */
+  long getValueAtPercentile(double percentile) {
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.total));
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(this.highestOf(i), this.max);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the bucket of a time.
+   *
+   * @param time the time, not negative
+   * @return the index of the bucket
+   */
+  private int indexOf(long time) {
+    if (time < 2 * this.half) {
+      return (int) time;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(time) - (this.bits - 1);
+    return shift * this.half + (int) (time >>> shift);
+  }
+
+  /**
+   * Gets the largest time of a bucket.
+   *
+   * @param index the index of the bucket
+   * @return the largest time
+   */
+  private long highestOf(int index) {
+    if (index < 2 * this.half) {
+      return index;
+    }
+    int shift = index / this.half - 1;
+    long mantissa = index - (long) shift * this.half;
+    long highest = ((mantissa + 1) << shift) - 1;
+    return highest < 0 ? Long.MAX_VALUE : highest;
+  }
+}
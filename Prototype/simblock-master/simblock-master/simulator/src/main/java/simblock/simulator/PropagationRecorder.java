@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import simblock.block.Block;
+
+/**
+ * The type Propagation recorder records the propagation times of the most recently observed
+ * blocks, keyed by {@link Block#getId()}, in primitive arrays. The blocks are held in a ring of
+ * slots: when a block is observed while all slots are taken, the propagation of the oldest block is
+ * printed and its slot, arrays included, is reused. The slot of a block is found from its id by an
+ * open-addressing table at most half full.
+ */
+class PropagationRecorder {
+  /** The time of a node that has not seen the block. */
+  private static final long UNSEEN = Long.MIN_VALUE;
+
+  /** The line separator of the output. */
+  private static final String LINE = System.lineSeparator();
+
+  /** The observed blocks, or their names, by slot, null for a free slot. */
+  private final Object[] blocks;
+
+  /** The heights of the observed blocks by slot. */
+  private final int[] heights;
+
+  /** The ids of the observed blocks by slot. */
+  private final int[] blockIds;
+
+  /**
+   * The slots of the observed blocks plus one, at the position of the hash of their id or the
+   * first free position after it, 0 for a free position.
+   */
+  private final int[] slotsById;
+
+  /** The propagation times by slot, indexed by node id, {@link #UNSEEN} for the other nodes. */
+  private final long[][] times;
+
+  /** The ids of the nodes that have seen the block of a slot, in the order they first saw it. */
+  private final int[][] nodeIds;
+
+  /** The number of nodes that have seen the block of a slot. */
+  private final int[] counts;
+
+  /** The slot of the oldest block. */
+  private int oldest = 0;
+
+  /** The number of observed blocks. */
+  private int size = 0;
+
+  /** The buffer of the printed propagation. */
+  private final StringBuilder text = new StringBuilder();
+
+  /**
+   * Instantiates a new Propagation recorder.
+   *
+   * @param capacity the number of blocks observed at once
+   * @param numNodes the expected number of nodes, the arrays grow for larger node ids
+   */
+  PropagationRecorder(int capacity, int numNodes) {
+    this.blocks = new Object[capacity];
+    this.heights = new int[capacity];
+    this.blockIds = new int[capacity];
+    this.slotsById = new int[Integer.highestOneBit(Math.max(capacity, 1)) << 2];
+    this.times = new long[capacity][numNodes + 1];
+    for (long[] slotTimes : this.times) {
+      Arrays.fill(slotTimes, UNSEEN);
+    }
+    this.nodeIds = new int[capacity][numNodes];
+    this.counts = new int[capacity];
+  }
+
+  /**
+   * Records the time a node has seen a block, from the minting of the block. A block not observed
+   * yet takes a slot, printing the propagation of the oldest block to the output if all slots are
+   * taken. Seeing a block again updates the time but not the order of the node.
+   *
+   * @param block the block
+   * @param nodeId the node id
+   * @param time the propagation time in milliseconds
+   * @param out the output of the propagation of the oldest block
+   */
+  void record(Block block, int nodeId, long time, PrintStream out) {
+    this.record(block.getId(), block, block.getHeight(), nodeId, time, out);
+  }
+
+  /**
+   * Records the time a node has seen a block known by its id, as {@link #record(Block, int, long,
+   * PrintStream)} does.
+   *
+   * @param blockId the block id
+   * @param block the block or its name, printed as the block
+   * @param height the height of the block
+   * @param nodeId the node id
+   * @param time the propagation time in milliseconds
+   * @param out the output of the propagation of the oldest block
+   */
+  void record(int blockId, Object block, int height, int nodeId, long time, PrintStream out) {
+    int slot = this.find(blockId);
+    if (slot < 0) {
+      if (this.size == this.blocks.length) {
+        this.print(this.oldest, out);
+        this.oldest = (this.oldest + 1) % this.blocks.length;
+        this.size--;
+      }
+      slot = (this.oldest + this.size) % this.blocks.length;
+      this.blocks[slot] = block;
+      this.blockIds[slot] = blockId;
+      this.heights[slot] = height;
+      int position = this.position(blockId);
+      while (this.slotsById[position] != 0) {
+        position = (position + 1) & (this.slotsById.length - 1);
+      }
+      this.slotsById[position] = slot + 1;
+      this.counts[slot] = 0;
+      this.size++;
+    }
+    long[] slotTimes = this.times[slot];
+    if (nodeId >= slotTimes.length) {
+      int length = slotTimes.length;
+      slotTimes = Arrays.copyOf(slotTimes, Math.max(nodeId + 1, length * 2));
+      Arrays.fill(slotTimes, length, slotTimes.length, UNSEEN);
+      this.times[slot] = slotTimes;
+    }
+    if (slotTimes[nodeId] == UNSEEN) {
+      if (this.counts[slot] == this.nodeIds[slot].length) {
+        int[] ids = this.nodeIds[slot];
+        this.nodeIds[slot] = Arrays.copyOf(ids, Math.max(16, ids.length * 2));
+      }
+      this.nodeIds[slot][this.counts[slot]++] = nodeId;
+    }
+    slotTimes[nodeId] = time;
+  }
+
+  /**
+   * Prints the propagation of every observed block, oldest first, and frees the slots.
+   *
+   * @param out the output
+   */
+  void printAll(PrintStream out) {
+    for (int i = 0; i < this.size; i++) {
+      this.print((this.oldest + i) % this.blocks.length, out);
+    }
+    this.size = 0;
+  }
+
+  /**
+   * Finds the slot of a block.
+   *
+   * @param blockId the block id
+   * @return the slot or -1 if the block is not observed
+   */
+  private int find(int blockId) {
+    int mask = this.slotsById.length - 1;
+    for (int i = this.position(blockId); this.slotsById[i] != 0; i = (i + 1) & mask) {
+      int slot = this.slotsById[i] - 1;
+      if (this.blockIds[slot] == blockId) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /** Gets the position of the hash of a block id in {@link #slotsById}. */
+  private int position(int blockId) {
+    return blockId * 0x9e3779b9 >>> Integer.numberOfLeadingZeros(this.slotsById.length - 1);
+  }
+
+  /**
+   * Removes the slot of a block from {@link #slotsById}, moving back the slots found after it that
+   * could not take its position.
+   *
+   * @param blockId the block id
+   */
+  private void remove(int blockId) {
+    int mask = this.slotsById.length - 1;
+    int free = this.position(blockId);
+    while (this.blockIds[this.slotsById[free] - 1] != blockId) {
+      free = (free + 1) & mask;
+    }
+    for (int i = (free + 1) & mask; this.slotsById[i] != 0; i = (i + 1) & mask) {
+      int home = this.position(this.blockIds[this.slotsById[i] - 1]);
+      // Move the slot back unless its home position lies after the free position
+      if (((i - home) & mask) >= ((i - free) & mask)) {
+        this.slotsById[free] = this.slotsById[i];
+        free = i;
+      }
+    }
+    this.slotsById[free] = 0;
+  }
+
+  /**
+   * Prints the propagation of the block of a slot at once and frees the slot, in the format:
+   *
+   * <p><em>block:height</em>, then a line <em>node_ID, propagation_time</em> per node in the order
+   * the nodes have seen the block, then an empty line.
+   *
+   * <p><em>propagation_time</em>: The time from when the block of the block ID is generated to when
+   * the node of the <em>node_ID</em> is reached.
+   */
+  private void print(int slot, PrintStream out) {
+    this.text.setLength(0);
+    this.text.append(this.blocks[slot]).append(':').append(this.heights[slot]).append(LINE);
+    int[] ids = this.nodeIds[slot];
+    long[] slotTimes = this.times[slot];
+    for (int i = 0; i < this.counts[slot]; i++) {
+      this.text.append(ids[i]).append(',').append(slotTimes[ids[i]]).append(LINE);
+      slotTimes[ids[i]] = UNSEEN;
+    }
+    this.text.append(LINE);
+    out.print(this.text);
+    this.remove(this.blockIds[slot]);
+    this.blocks[slot] = null;
+  }
+}
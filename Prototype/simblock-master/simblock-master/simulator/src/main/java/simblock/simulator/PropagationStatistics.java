@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import simblock.block.Block;
+import simblock.node.Node;
+
+/**
+ * The type Propagation statistics aggregates the block propagation times into {@link
+ * PropagationHistogram histograms} as the blocks arrive, without keeping the time of each node:
+ * the times of all arrivals split by region of the minter, region of the receiver and relay
+ * protocol of the receiver, and the times for half and 90% of the nodes to receive a block.
+ */
+class PropagationStatistics {
+  /** The percentiles of the report. */
+  private static final double[] PERCENTILES = {50, 90, 99};
+
+  /** The names of the regions. */
+  private final List<String> regions;
+
+  /** The number of nodes a block propagates to. */
+  private final int numNodes;
+
+  /** The times of all arrivals. */
+  private final PropagationHistogram all;
+
+  /** The times of the arrivals by region of the minter. */
+  private final PropagationHistogram[] byMinterRegion;
+
+  /** The times of the arrivals by region of the receiver. */
+  private final PropagationHistogram[] byReceiverRegion;
+
+  /** The times of the arrivals at nodes using compact block relay. */
+  private final PropagationHistogram compact;
+
+  /** The times of the arrivals at nodes using the legacy protocol. */
+  private final PropagationHistogram legacy;
+
+  /** The times for half of the nodes to receive a block. */
+  private final PropagationHistogram halfNodes;
+
+  /** The times for 90% of the nodes to receive a block. */
+  private final PropagationHistogram mostNodes;
+
+  /** The number of nodes that have received a block, indexed by block id. */
+  private int[] arrivals = new int[64];
+
+  /**
+   * Instantiates a new Propagation statistics.
+   *
+   * @param regions the names of the regions
+   * @param numNodes the number of nodes a block propagates to
+   * @param bits the number of significant bits of the histograms
+   */
+  PropagationStatistics(List<String> regions, int numNodes, int bits) {
+    this.regions = regions;
+    this.numNodes = numNodes;
+    this.all = new PropagationHistogram(bits);
+    this.byMinterRegion = new PropagationHistogram[regions.size()];
+    this.byReceiverRegion = new PropagationHistogram[regions.size()];
+    for (int i = 0; i < regions.size(); i++) {
+      this.byMinterRegion[i] = new PropagationHistogram(bits);
+      this.byReceiverRegion[i] = new PropagationHistogram(bits);
+    }
+    this.compact = new PropagationHistogram(bits);
+    this.legacy = new PropagationHistogram(bits);
+    this.halfNodes = new PropagationHistogram(bits);
+    this.mostNodes = new PropagationHistogram(bits);
+  }
+
+  /**
+   * Records the arrival of a block at a node.
+   *
+   * @param block the block
+   * @param node the node
+   * @param time the propagation time in milliseconds
+   */
+  void record(Block block, Node node, long time) {
+    this.record(
+        block.getId(), block.getMinter().getRegion(), node.getRegion(), node.isUseCBR(), time);
+  }
+
+  /**
+   * Records the arrival of a block at a node, known by their ids and regions.
+   *
+   * @param id the block id
+   * @param minterRegion the region of the minter of the block
+   * @param receiverRegion the region of the node
+   * @param compact whether the node uses compact block relay
+   * @param time the propagation time in milliseconds
+   */
+  void record(int id, int minterRegion, int receiverRegion, boolean compact, long time) {
+    this.all.record(time);
+    this.byMinterRegion[minterRegion].record(time);
+    this.byReceiverRegion[receiverRegion].record(time);
+    (compact ? this.compact : this.legacy).record(time);
+
+    if (id >= this.arrivals.length) {
+      this.arrivals = Arrays.copyOf(this.arrivals, Math.max(id + 1, this.arrivals.length * 2));
+    }
+    // Reached once per block, when the count crosses the threshold
+    int count = ++this.arrivals[id];
+    if (count == (this.numNodes + 1) / 2) {
+      this.halfNodes.record(time);
+    }
+    if (count == (this.numNodes * 9 + 9) / 10) {
+      this.mostNodes.record(time);
+    }
+  }
+
+  /**
+   * Prints the report, a line per histogram in the format:
+   *
+   * <p><em>name: count=, mean=, p50=, p90=, p99=, max=</em>
+   *
+   * @param out the output
+   */
+  void print(PrintStream out) {
+    out.println("Propagation time (ms)");
+    this.print(out, "all", this.all);
+    for (int i = 0; i < this.regions.size(); i++) {
+      this.print(out, "minter region " + this.regions.get(i), this.byMinterRegion[i]);
+    }
+    for (int i = 0; i < this.regions.size(); i++) {
+      this.print(out, "receiver region " + this.regions.get(i), this.byReceiverRegion[i]);
+    }
+    this.print(out, "receiver protocol CBR", this.compact);
+    this.print(out, "receiver protocol legacy", this.legacy);
+    this.print(out, "time to 50% of nodes", this.halfNodes);
+    this.print(out, "time to 90% of nodes", this.mostNodes);
+  }
+
+  private void print(PrintStream out, String name, PropagationHistogram histogram) {
+    StringBuilder line = new StringBuilder(name);
+    line.append(": count=").append(histogram.getCount());
+    line.append(", mean=").append(String.format(Locale.ROOT, "%.1f", histogram.getMean()));
+    for (double percentile : PERCENTILES) {
+      line.append(", p").append((int) percentile).append('=');
+      line.append(histogram.getValueAtPercentile(percentile));
+    }
+    line.append(", max=").append(histogram.getMax());
+    out.println(line);
+  }
+}
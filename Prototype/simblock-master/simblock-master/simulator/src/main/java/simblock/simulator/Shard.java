@@ -0,0 +1,630 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.settings.NetworkConfiguration.LATENCY;
+import static simblock.simulator.Simulator.getSimulatedNodes;
+import static simblock.simulator.Timer.getCurrentTime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import simblock.block.Block;
+import simblock.block.ProofOfWorkBlock;
+import simblock.node.Node;
+import simblock.simulator.queue.ScheduledTask;
+import simblock.task.AbstractMessageTask;
+import simblock.task.BlockMessageTask;
+import simblock.task.CmpctBlockMessageTask;
+import simblock.task.GetBlockTxnMessageTask;
+import simblock.task.InvMessageTask;
+import simblock.task.RecMessageTask;
+
+/**
+ * The type Shard connects a process of a sharded simulation to the {@link ShardCoordinator}.
+ *
+ * <p>Every process runs the same setup from the same seed and holds the whole network, but its
+ * {@link ParallelEngine} only runs the partitions of the shard, a range of regions. The nodes of
+ * the other regions keep their initial state, so the blocks and the sets of blocks of a node take
+ * memory in one process only. Before every window, the shard sends the messages to the partitions
+ * of other shards to the coordinator, with the blocks their receivers have not seen yet, and
+ * receives the messages to its own partitions. The shards take turns to run their minting tasks,
+ * sharing the block height and the block ids.
+ *
+ * <p>The log output is written with the time and the partition it was produced by, so that the
+ * coordinator can merge the output of all shards in the order the parallel engine would have
+ * written it. The arrivals of the blocks at the nodes of the shard are recorded in the order of
+ * time as well, for the coordinator to merge the propagation times of all shards.
+ */
+class Shard {
+  /** The system property holding the index of the shard a process runs. */
+  static final String INDEX_PROPERTY = "simblock.shard";
+
+  /** The system property holding the port of the coordinator. */
+  static final String PORT_PROPERTY = "simblock.coordinator";
+
+  /** The index of the shard the process runs, or -1 if the process does not run a shard. */
+  static final int INDEX = Integer.getInteger(INDEX_PROPERTY, -1);
+
+  /** The coordinator lets the shards run the next window or minting tasks. */
+  static final byte CONTINUE = 0;
+
+  /** The coordinator ends the simulation. */
+  static final byte END = 1;
+
+  private static final byte INV = 0;
+  private static final byte REC = 1;
+  private static final byte GET_BLOCK_TXN = 2;
+  private static final byte CMPCT_BLOCK = 3;
+  private static final byte BLOCK = 4;
+
+  /** The file of the arrivals of the blocks at the nodes of a shard, in its output directory. */
+  static final String ARRIVALS_FILE = "arrivals.bin";
+
+  /** The log output of the process, if it runs a shard. */
+  private static KeyedWriter output;
+
+  /** The arrivals of the blocks at the nodes of the shard, null until the first one. */
+  private static DataOutputStream arrivals = null;
+
+  /** Whether the process has finished the setup, which all shards run alike. */
+  private static boolean connected = false;
+
+  /** The number of shards. */
+  private final int numShards;
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  /** The blocks sent to or received from other shards, by id. */
+  private final HashMap<Integer, Block> blocks = new HashMap<>();
+
+  /** The ids of the blocks known by each shard, as far as this shard can tell. */
+  private final ArrayList<HashSet<Integer>> knownBlocks = new ArrayList<>();
+
+  /** The time of the next minting task of this shard, as reported to the coordinator. */
+  private long localMintingTime;
+
+  /** The time of the next task of all shards. */
+  private long nextTaskTime;
+
+  /** The time of the next minting task of all shards. */
+  private long nextMintingTime;
+
+  /** The time the simulation ended at in all shards. */
+  private long endTime;
+
+  /**
+   * Connects to the coordinator once the setup is done.
+   *
+   * @param numShards the number of shards
+   * @throws IllegalStateException if the coordinator cannot be reached
+   */
+  Shard(int numShards) {
+    this.numShards = numShards;
+    // All shards start from the same genesis block, held by its minter
+    Block genesis = null;
+    for (Node node : getSimulatedNodes()) {
+      if (node.getBlock() != null) {
+        genesis = node.getBlock();
+        break;
+      }
+    }
+    this.blocks.put(genesis.getId(), genesis);
+    for (int shard = 0; shard < numShards; shard++) {
+      HashSet<Integer> known = new HashSet<>();
+      known.add(genesis.getId());
+      this.knownBlocks.add(known);
+    }
+    try {
+      this.socket = new Socket(InetAddress.getLoopbackAddress(), Integer.getInteger(PORT_PROPERTY));
+      this.socket.setTcpNoDelay(true);
+      this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+      this.out.writeInt(INDEX);
+      this.out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot connect to the coordinator", e);
+    }
+    connected = true;
+  }
+
+  /**
+   * Gets the shard that runs a partition. Each shard runs a contiguous range of partitions.
+   *
+   * @param partition the index of the partition
+   * @param numShards the number of shards
+   * @return the index of the shard
+   */
+  static int getShard(int partition, int numShards) {
+    return (int) ((long) partition * numShards / LATENCY.length);
+  }
+
+  /**
+   * Gets the output directory of a shard.
+   *
+   * @param output the output directory of the simulation
+   * @param index the index of the shard
+   * @return the output directory of the shard
+   */
+  static URI getOutputUri(URI output, int index) {
+    return output.resolve("./shard-" + index + "/");
+  }
+
+  /**
+   * Wraps the writer of the log output of a process running a shard.
+   *
+   * @param out the writer of the output file
+   * @return the writer to log to
+   */
+  static Writer createWriter(Writer out) {
+    output = new KeyedWriter(out);
+    return output;
+  }
+
+  /**
+   * Whether the process replicates the setup of the first shard and should not forward its log
+   * output during the setup.
+   *
+   * @return true if the process runs a shard other than the first one and is still setting up
+   */
+  static boolean isSetupReplica() {
+    return INDEX > 0 && !connected;
+  }
+
+  /**
+   * Records the arrival of a block at a node of this shard at the current time, in the format
+   * {@link ShardCoordinator} merges: the time, the block id and height, the propagation time, the
+   * region of the minter, the node id and region, and whether the node uses compact block relay.
+   * The arrivals during the setup are recorded by the first shard only.
+   *
+   * @param block the block
+   * @param node the node
+   * @param time the propagation time in milliseconds
+   */
+  static void recordArrival(Block block, Node node, long time) {
+    if (isSetupReplica()) {
+      return;
+    }
+    try {
+      if (arrivals == null) {
+        File file = new File(Main.OUT_FILE_URI.resolve("./" + ARRIVALS_FILE));
+        arrivals = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      }
+      arrivals.writeLong(getCurrentTime());
+      arrivals.writeInt(block.getId());
+      arrivals.writeInt(block.getHeight());
+      arrivals.writeLong(time);
+      arrivals.writeInt(block.getMinter().getRegion());
+      arrivals.writeInt(node.getNodeID());
+      arrivals.writeInt(node.getRegion());
+      arrivals.writeBoolean(node.isUseCBR());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Whether this shard runs the provided partition.
+   *
+   * @param partition the index of the partition
+   * @return true if the partition is run by this shard
+   */
+  boolean owns(int partition) {
+    return getShard(partition, this.numShards) == INDEX;
+  }
+
+  /**
+   * Sends the messages to the partitions of other shards, which the partitions of this shard hand
+   * over to the ones of their receivers, and the state of this shard to the coordinator. Then
+   * receives the messages to the partitions of this shard and the time of the next tasks of all
+   * shards.
+   *
+   * @param partitions all partitions
+   * @param localTaskTime the time of the next task of this shard
+   * @param localMintingTime the time of the next minting task of this shard
+   * @return false if the simulation ends
+   */
+  boolean synchronize(ArrayList<Partition> partitions, long localTaskTime, long localMintingTime) {
+    long currentTime = 0;
+    for (Partition partition : partitions) {
+      if (this.owns(partition.getIndex())) {
+        currentTime = Math.max(currentTime, partition.getCurrentTime());
+      }
+    }
+    this.localMintingTime = localMintingTime;
+    try {
+      this.out.writeLong(currentTime);
+      this.out.writeLong(localTaskTime);
+      this.out.writeLong(localMintingTime);
+      this.out.writeInt(Main.currentBlockHeight);
+      this.out.writeInt(Block.getLatestId());
+      for (int shard = 0; shard < this.numShards; shard++) {
+        if (shard != INDEX) {
+          this.writeMessages(partitions, shard);
+        }
+      }
+      this.out.flush();
+
+      if (this.in.readByte() == END) {
+        this.endTime = this.in.readLong();
+        return false;
+      }
+      this.nextTaskTime = this.in.readLong();
+      this.nextMintingTime = this.in.readLong();
+      for (int shard = 0; shard < this.numShards; shard++) {
+        if (shard != INDEX) {
+          this.readMessages(partitions, shard);
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      throw new IllegalStateException("Lost the connection to the coordinator", e);
+    }
+  }
+
+  /**
+   * Gets the time of the next task of all shards.
+   *
+   * @return the time in milliseconds or {@link Long#MAX_VALUE} if there is none
+   */
+  long getNextTaskTime() {
+    return this.nextTaskTime;
+  }
+
+  /**
+   * Gets the time of the next minting task of all shards.
+   *
+   * @return the time in milliseconds or {@link Long#MAX_VALUE} if there is none
+   */
+  long getNextMintingTime() {
+    return this.nextMintingTime;
+  }
+
+  /**
+   * Waits for the turn of this shard to run its minting tasks at the provided time. The shards take
+   * their turns in order and share the block height and the block ids.
+   *
+   * @param time the time in milliseconds
+   * @return true if the shard has minting tasks at this time and the simulation goes on
+   */
+  boolean startMintingTurn(long time) {
+    if (this.localMintingTime != time) {
+      return false;
+    }
+    try {
+      boolean proceed = this.in.readBoolean();
+      Main.currentBlockHeight = this.in.readInt();
+      Block.setLatestId(this.in.readInt());
+      return proceed;
+    } catch (IOException e) {
+      throw new IllegalStateException("Lost the connection to the coordinator", e);
+    }
+  }
+
+  /**
+   * Ends the turn of this shard to run its minting tasks.
+   *
+   * @param proceed false if a minting task ended the simulation
+   */
+  void endMintingTurn(boolean proceed) {
+    try {
+      this.out.writeBoolean(proceed);
+      this.out.writeInt(Main.currentBlockHeight);
+      this.out.writeInt(Block.getLatestId());
+      this.out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Lost the connection to the coordinator", e);
+    }
+  }
+
+  /**
+   * Sets the time and partition of the next log output.
+   *
+   * @param time the time in milliseconds
+   * @param partition the index of the partition or -1 for the output of all shards
+   */
+  void setOutputKey(long time, int partition) {
+    output.setKey(time, partition);
+  }
+
+  /**
+   * Closes the connection once the coordinator ended the simulation. The rest of the log output is
+   * the same in all shards.
+   *
+   * @return the time the simulation ended at in all shards
+   */
+  long finish() {
+    try {
+      this.socket.close();
+      if (arrivals != null) {
+        arrivals.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    this.setOutputKey(Long.MAX_VALUE, -1);
+    return this.endTime;
+  }
+
+  /**
+   * Writes the messages to the partitions of a shard: the blocks the shard does not know yet,
+   * parents first, then the messages.
+   *
+   * @param partitions all partitions
+   * @param shard the index of the receiving shard
+   * @throws IOException if the connection fails
+   */
+  private void writeMessages(ArrayList<Partition> partitions, int shard) throws IOException {
+    ArrayList<ScheduledTask> messages = new ArrayList<>();
+    for (Partition partition : partitions) {
+      if (getShard(partition.getIndex(), this.numShards) == shard) {
+        ScheduledTask scheduledTask;
+        while ((scheduledTask = partition.pollTask()) != null) {
+          messages.add(scheduledTask);
+        }
+      }
+    }
+
+    HashSet<Integer> known = this.knownBlocks.get(shard);
+    ArrayList<Block> newBlocks = new ArrayList<>();
+    long minTime = Long.MAX_VALUE;
+    for (ScheduledTask scheduledTask : messages) {
+      minTime = Math.min(minTime, scheduledTask.getScheduledTime());
+      int first = newBlocks.size();
+      Block block = getBlock((AbstractMessageTask) scheduledTask.getTask());
+      while (known.add(block.getId())) {
+        this.blocks.put(block.getId(), block);
+        newBlocks.add(first, block);
+        block = block.getParent();
+      }
+    }
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream batch = new DataOutputStream(buffer);
+    batch.writeInt(newBlocks.size());
+    for (Block block : newBlocks) {
+      batch.writeInt(block.getId());
+      batch.writeInt(block.getParent().getId());
+      batch.writeInt(block.getMinter().getNodeID());
+      batch.writeLong(block.getTime());
+      byte[] difficulty = ((ProofOfWorkBlock) block).getDifficulty().toByteArray();
+      batch.writeInt(difficulty.length);
+      batch.write(difficulty);
+    }
+    batch.writeInt(messages.size());
+    for (ScheduledTask scheduledTask : messages) {
+      AbstractMessageTask message = (AbstractMessageTask) scheduledTask.getTask();
+      batch.writeByte(getType(message));
+      batch.writeLong(scheduledTask.getScheduledTime());
+      batch.writeLong(scheduledTask.getSequence());
+      batch.writeInt(message.getFrom().getNodeID());
+      batch.writeInt(message.getTo().getNodeID());
+      batch.writeInt(getBlock(message).getId());
+      if (message instanceof BlockMessageTask || message instanceof CmpctBlockMessageTask) {
+        batch.writeLong(message.getInterval());
+      }
+    }
+    batch.flush();
+
+    this.out.writeInt(buffer.size());
+    this.out.writeLong(minTime);
+    buffer.writeTo(this.out);
+  }
+
+  /**
+   * Reads the messages of a shard to the partitions of this shard, see {@link
+   * #writeMessages(ArrayList, int)}.
+   *
+   * @param partitions all partitions
+   * @param shard the index of the sending shard
+   * @throws IOException if the connection fails
+   */
+  private void readMessages(ArrayList<Partition> partitions, int shard) throws IOException {
+    HashSet<Integer> known = this.knownBlocks.get(shard);
+    int numBlocks = this.in.readInt();
+    for (int i = 0; i < numBlocks; i++) {
+      int id = this.in.readInt();
+      Block parent = this.blocks.get(this.in.readInt());
+      Node minter = getNode(this.in.readInt());
+      long time = this.in.readLong();
+      byte[] difficulty = new byte[this.in.readInt()];
+      this.in.readFully(difficulty);
+      known.add(id);
+      if (!this.blocks.containsKey(id)) {
+        this.blocks.put(
+            id,
+            new ProofOfWorkBlock(
+                (ProofOfWorkBlock) parent, minter, time, new BigInteger(difficulty), id));
+      }
+    }
+
+    int numMessages = this.in.readInt();
+    for (int i = 0; i < numMessages; i++) {
+      byte type = this.in.readByte();
+      long time = this.in.readLong();
+      long sequence = this.in.readLong();
+      Node from = getNode(this.in.readInt());
+      Node to = getNode(this.in.readInt());
+      int blockId = this.in.readInt();
+      Block block = this.blocks.get(blockId);
+      known.add(blockId);
+
+      AbstractMessageTask message;
+      switch (type) {
+        case INV:
+          message = new InvMessageTask(from, to, block);
+          break;
+        case REC:
+          message = new RecMessageTask(from, to, block);
+          break;
+        case GET_BLOCK_TXN:
+          message = new GetBlockTxnMessageTask(from, to, block);
+          break;
+        case CMPCT_BLOCK:
+          message = CmpctBlockMessageTask.withInterval(from, to, block, this.in.readLong());
+          break;
+        case BLOCK:
+          message = BlockMessageTask.withInterval(from, to, block, this.in.readLong());
+          break;
+        default:
+          throw new IllegalStateException("Unknown message type " + type);
+      }
+      partitions.get(to.getRegion()).receiveTask(new ScheduledTask(message, time, sequence));
+    }
+  }
+
+  private static Node getNode(int nodeId) {
+    return getSimulatedNodes().get(nodeId - 1);
+  }
+
+  private static byte getType(AbstractMessageTask message) {
+    if (message instanceof InvMessageTask) {
+      return INV;
+    }
+    if (message instanceof RecMessageTask) {
+      return REC;
+    }
+    if (message instanceof GetBlockTxnMessageTask) {
+      return GET_BLOCK_TXN;
+    }
+    if (message instanceof CmpctBlockMessageTask) {
+      return CMPCT_BLOCK;
+    }
+    if (message instanceof BlockMessageTask) {
+      return BLOCK;
+    }
+    throw new IllegalStateException("Cannot send " + message + " to another shard");
+  }
+
+  private static Block getBlock(AbstractMessageTask message) {
+    switch (getType(message)) {
+      case INV:
+        return ((InvMessageTask) message).getBlock();
+      case REC:
+        return ((RecMessageTask) message).getBlock();
+      case GET_BLOCK_TXN:
+        return ((GetBlockTxnMessageTask) message).getBlock();
+      case CMPCT_BLOCK:
+        return ((CmpctBlockMessageTask) message).getBlock();
+      default:
+        return ((BlockMessageTask) message).getBlock();
+    }
+  }
+
+  /**
+   * A writer that starts a line with the time and the partition of the output whenever they
+   * change, for the coordinator to merge the output of the shards. The log output itself holds no
+   * line breaks.
+   */
+  static class KeyedWriter extends Writer {
+    /** The underlying writer. */
+    private final Writer out;
+
+    /** The time of the output. */
+    private long time = Long.MIN_VALUE;
+
+    /** The partition of the output, -1 for the output of all shards. */
+    private int partition = -1;
+
+    /** Whether the current line has been started. */
+    private boolean keyWritten = false;
+
+    /** Whether any line has been started. */
+    private boolean started = false;
+
+    /**
+     * Instantiates a new Keyed writer.
+     *
+     * @param out the underlying writer
+     */
+    KeyedWriter(Writer out) {
+      this.out = out;
+    }
+
+    /**
+     * Sets the time and the partition of the next output.
+     *
+     * @param time the time in milliseconds
+     * @param partition the index of the partition
+     */
+    void setKey(long time, int partition) {
+      if (time != this.time || partition != this.partition) {
+        this.time = time;
+        this.partition = partition;
+        this.keyWritten = false;
+      }
+    }
+
+    private void writeKey() throws IOException {
+      if (this.started) {
+        this.out.write('\n');
+      }
+      this.out.write(this.time + "\t" + this.partition + "\t");
+      this.keyWritten = true;
+      this.started = true;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      if (len > 0) {
+        if (!this.keyWritten) {
+          this.writeKey();
+        }
+        this.out.write(cbuf, off, len);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      if (len > 0) {
+        if (!this.keyWritten) {
+          this.writeKey();
+        }
+        this.out.write(str, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.started) {
+        this.out.write('\n');
+      }
+      this.out.close();
+    }
+  }
+}
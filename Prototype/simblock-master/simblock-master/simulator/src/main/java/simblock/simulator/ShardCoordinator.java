@@ -0,0 +1,545 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.settings.NetworkConfiguration.LATENCY;
+import static simblock.settings.NetworkConfiguration.REGION_LIST;
+import static simblock.settings.SimulationConfiguration.ALGO;
+import static simblock.settings.SimulationConfiguration.BINARY_TRACE;
+import static simblock.settings.SimulationConfiguration.BLOCK_STORE;
+import static simblock.settings.SimulationConfiguration.NUM_OF_NODES;
+import static simblock.settings.SimulationConfiguration.PARALLEL_OPTIMISTIC;
+import static simblock.settings.SimulationConfiguration.PARALLEL_THREADS;
+import static simblock.settings.SimulationConfiguration.PRINT_PROPAGATION;
+import static simblock.settings.SimulationConfiguration.PROPAGATION_HISTOGRAM_BITS;
+import static simblock.simulator.Main.OUT_FILE_URI;
+import static simblock.simulator.Main.OUT_JSON_FILE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import simblock.block.ProofOfWorkBlock;
+import simblock.node.consensus.ProofOfWork;
+
+/**
+ * The type Shard coordinator runs a sharded simulation on the local machine. It starts one process
+ * per {@link Shard}, relays the messages between them over loopback sockets and lets them run
+ * their windows and minting tasks in step, the way the {@link ParallelEngine} runs its partitions.
+ * At the end, it merges the log output, the block lists and the propagation times of the shards
+ * into the output of the simulation.
+ */
+class ShardCoordinator {
+
+  /** The number of shards. */
+  private final int numShards;
+
+  /** The processes, indexed by shard. */
+  private final ArrayList<Process> processes = new ArrayList<>();
+
+  private final Socket[] sockets;
+  private final DataInputStream[] in;
+  private final DataOutputStream[] out;
+
+  /**
+   * Instantiates a new Shard coordinator.
+   *
+   * @param numShards the number of shards
+   */
+  ShardCoordinator(int numShards) {
+    if (PARALLEL_THREADS == 0 || PARALLEL_OPTIMISTIC) {
+      throw new IllegalArgumentException(
+          "A sharded simulation requires the conservative parallel engine");
+    }
+    if (!ALGO.equals(ProofOfWork.class.getName())) {
+      throw new IllegalArgumentException(
+          "A sharded simulation supports " + ProofOfWork.class.getName() + " only");
+    }
+    if (BINARY_TRACE) {
+      throw new IllegalArgumentException("A sharded simulation does not support the binary trace");
+    }
+    if (BLOCK_STORE) {
+      throw new IllegalArgumentException("A sharded simulation does not support the block store");
+    }
+    if (numShards > LATENCY.length) {
+      throw new IllegalArgumentException("More shards than regions: " + numShards);
+    }
+    this.numShards = numShards;
+    this.sockets = new Socket[numShards];
+    this.in = new DataInputStream[numShards];
+    this.out = new DataOutputStream[numShards];
+  }
+
+  /** Runs the simulation and merges the output. */
+  void run() {
+    try (ServerSocket serverSocket =
+        new ServerSocket(0, this.numShards, InetAddress.getLoopbackAddress())) {
+      this.startProcesses(serverSocket.getLocalPort());
+      this.connect(serverSocket);
+      this.coordinate();
+      for (int shard = 0; shard < this.numShards; shard++) {
+        int exitValue = this.processes.get(shard).waitFor();
+        if (exitValue != 0) {
+          throw new IllegalStateException("Shard " + shard + " exited with " + exitValue);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Lost the connection to a shard", e);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      for (Process process : this.processes) {
+        process.destroy();
+      }
+      for (Socket socket : this.sockets) {
+        try {
+          if (socket != null) {
+            socket.close();
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+    try {
+      this.mergeOutput();
+      this.mergeBlockLists();
+      this.mergeArrivals();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot merge the output of the shards", e);
+    }
+  }
+
+  /**
+   * Starts a process per shard with the same JVM arguments and class path as this one. The
+   * standard output of a shard goes to its output directory.
+   *
+   * @param port the port to connect to
+   * @throws IOException if a process cannot be started
+   */
+  private void startProcesses(int port) throws IOException {
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    for (int shard = 0; shard < this.numShards; shard++) {
+      File directory = new File(Shard.getOutputUri(OUT_FILE_URI, shard));
+      new File(directory, "graph").mkdirs();
+
+      ArrayList<String> command = new ArrayList<>();
+      command.add(java);
+      command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+      command.add("-D" + Shard.INDEX_PROPERTY + "=" + shard);
+      command.add("-D" + Shard.PORT_PROPERTY + "=" + port);
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(Main.class.getName());
+      this.processes.add(
+          new ProcessBuilder(command)
+              .redirectOutput(new File(directory, "stdout.txt"))
+              .redirectError(ProcessBuilder.Redirect.INHERIT)
+              .start());
+    }
+  }
+
+  /**
+   * Accepts the connections of the shards, which connect once they are done with the setup.
+   *
+   * @param serverSocket the server socket
+   * @throws IOException if a connection fails
+   */
+  private void connect(ServerSocket serverSocket) throws IOException {
+    serverSocket.setSoTimeout(1000);
+    for (int connected = 0; connected < this.numShards; ) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketTimeoutException e) {
+        for (Process process : this.processes) {
+          if (!process.isAlive()) {
+            throw new IllegalStateException("A shard exited before connecting");
+          }
+        }
+        continue;
+      }
+      socket.setTcpNoDelay(true);
+      DataInputStream shardIn =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      int shard = shardIn.readInt();
+      this.sockets[shard] = socket;
+      this.in[shard] = shardIn;
+      this.out[shard] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      connected++;
+    }
+  }
+
+  /**
+   * Lets the shards run in step until they run out of tasks or a minting task ends the simulation.
+   * Each step, the shards report the time of their next tasks and send their messages to other
+   * shards. The coordinator relays the messages with the time of the next tasks of all shards, from
+   * which every shard derives the same window. If a minting task comes first, the shards with
+   * minting tasks at that time run them one after another.
+   *
+   * @throws IOException if a connection fails
+   */
+  private void coordinate() throws IOException {
+    long endTime = 0;
+    int blockHeight = 0;
+    int latestId = 0;
+    boolean ended = false;
+    long[] shardMintingTimes = new long[this.numShards];
+    byte[][][] batches = new byte[this.numShards][this.numShards][];
+
+    while (true) {
+      long nextTaskTime = Long.MAX_VALUE;
+      long nextMintingTime = Long.MAX_VALUE;
+      for (int shard = 0; shard < this.numShards; shard++) {
+        DataInputStream shardIn = this.in[shard];
+        endTime = Math.max(endTime, shardIn.readLong());
+        nextTaskTime = Math.min(nextTaskTime, shardIn.readLong());
+        shardMintingTimes[shard] = shardIn.readLong();
+        nextMintingTime = Math.min(nextMintingTime, shardMintingTimes[shard]);
+        blockHeight = Math.max(blockHeight, shardIn.readInt());
+        latestId = Math.max(latestId, shardIn.readInt());
+        for (int target = 0; target < this.numShards; target++) {
+          if (target != shard) {
+            byte[] batch = new byte[shardIn.readInt()];
+            nextTaskTime = Math.min(nextTaskTime, shardIn.readLong());
+            shardIn.readFully(batch);
+            batches[shard][target] = batch;
+          }
+        }
+      }
+
+      if (ended || nextTaskTime == Long.MAX_VALUE && nextMintingTime == Long.MAX_VALUE) {
+        for (DataOutputStream shardOut : this.out) {
+          shardOut.writeByte(Shard.END);
+          shardOut.writeLong(endTime);
+          shardOut.flush();
+        }
+        return;
+      }
+      for (int target = 0; target < this.numShards; target++) {
+        DataOutputStream shardOut = this.out[target];
+        shardOut.writeByte(Shard.CONTINUE);
+        shardOut.writeLong(nextTaskTime);
+        shardOut.writeLong(nextMintingTime);
+        for (int shard = 0; shard < this.numShards; shard++) {
+          if (shard != target) {
+            shardOut.write(batches[shard][target]);
+          }
+        }
+        shardOut.flush();
+      }
+
+      if (nextMintingTime <= nextTaskTime) {
+        for (int shard = 0; shard < this.numShards; shard++) {
+          if (shardMintingTimes[shard] != nextMintingTime) {
+            continue;
+          }
+          DataOutputStream shardOut = this.out[shard];
+          shardOut.writeBoolean(!ended);
+          shardOut.writeInt(blockHeight);
+          shardOut.writeInt(latestId);
+          shardOut.flush();
+          if (!ended) {
+            DataInputStream shardIn = this.in[shard];
+            ended = !shardIn.readBoolean();
+            blockHeight = shardIn.readInt();
+            latestId = shardIn.readInt();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges the log output of the shards in the order of time and partition, see {@link
+   * Shard.KeyedWriter}. The output common to all shards is taken from the first one. The graphs
+   * written by the shards are moved to the output directory.
+   *
+   * @throws IOException if an output file cannot be read
+   */
+  private void mergeOutput() throws IOException {
+    PriorityQueue<Segment> segments = new PriorityQueue<>();
+    ArrayList<BufferedReader> readers = new ArrayList<>();
+    for (int shard = 0; shard < this.numShards; shard++) {
+      File output = new File(Shard.getOutputUri(OUT_FILE_URI, shard).resolve("./output.json"));
+      BufferedReader reader = new BufferedReader(new FileReader(output));
+      readers.add(reader);
+      Segment segment = Segment.read(reader, shard);
+      if (segment != null) {
+        segments.add(segment);
+      }
+    }
+
+    Segment segment;
+    while ((segment = segments.poll()) != null) {
+      if (segment.partition >= 0 || segment.shard == 0) {
+        OUT_JSON_FILE.print(segment.text);
+      }
+      Segment next = Segment.read(readers.get(segment.shard), segment.shard);
+      if (next != null) {
+        segments.add(next);
+      }
+    }
+    OUT_JSON_FILE.close();
+    for (BufferedReader reader : readers) {
+      reader.close();
+    }
+
+    File graph = new File(OUT_FILE_URI.resolve("./graph/"));
+    for (int shard = 0; shard < this.numShards; shard++) {
+      File[] files =
+          new File(Shard.getOutputUri(OUT_FILE_URI, shard).resolve("./graph/")).listFiles();
+      if (files != null) {
+        for (File file : files) {
+          Files.move(
+              file.toPath(),
+              new File(graph, file.getName()).toPath(),
+              StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges the block lists of the shards into the block list of the simulation, in the order of
+   * the block ids, which is the order the blocks were minted in. Each shard lists the blocks its
+   * nodes received, and the canonical chain is the one of the shard with the highest tip, the first
+   * one among equals.
+   *
+   * @throws IOException if a block list cannot be read or written
+   */
+  private void mergeBlockLists() throws IOException {
+    // The lines without the classification, by block id
+    TreeMap<Integer, String> blocks = new TreeMap<>();
+    HashSet<Integer> canonical = new HashSet<>();
+    int tipHeight = -1;
+    for (int shard = 0; shard < this.numShards; shard++) {
+      File blockList =
+          new File(Shard.getOutputUri(OUT_FILE_URI, shard).resolve("./blockList.txt"));
+      HashSet<Integer> chain = new HashSet<>();
+      int height = -1;
+      try (BufferedReader reader = new BufferedReader(new FileReader(blockList))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          // OnChain : height : block or Orphan : height : block
+          String[] fields = line.split(" : ", 3);
+          String block = fields[2];
+          int id = Integer.parseInt(block.substring(block.lastIndexOf('@') + 1), 16);
+          blocks.putIfAbsent(id, fields[1] + " : " + block);
+          if (fields[0].equals("OnChain")) {
+            chain.add(id);
+            height = Math.max(height, Integer.parseInt(fields[1]));
+          }
+        }
+      }
+      if (height > tipHeight) {
+        tipHeight = height;
+        canonical = chain;
+      }
+    }
+
+    File blockList = new File(OUT_FILE_URI.resolve("./blockList.txt"));
+    try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(blockList)))) {
+      for (Map.Entry<Integer, String> block : blocks.entrySet()) {
+        out.println(
+            (canonical.contains(block.getKey()) ? "OnChain : " : "Orphan : ") + block.getValue());
+      }
+    }
+  }
+
+  /**
+   * Merges the arrivals of the blocks at the nodes of the shards in the order of time, and prints
+   * the propagation times and their histograms as a single process would, see {@link
+   * Simulator#printAllPropagation()}. The arrival files of the shards are deleted once merged.
+   *
+   * @throws IOException if an arrival file cannot be read
+   */
+  private void mergeArrivals() throws IOException {
+    PropagationRecorder recorder =
+        new PropagationRecorder(Simulator.OBSERVED_BLOCKS, NUM_OF_NODES);
+    PropagationStatistics statistics =
+        new PropagationStatistics(REGION_LIST, NUM_OF_NODES, PROPAGATION_HISTOGRAM_BITS);
+    PriorityQueue<Arrival> arrivals = new PriorityQueue<>();
+    ArrayList<DataInputStream> inputs = new ArrayList<>();
+    ArrayList<File> files = new ArrayList<>();
+    for (int shard = 0; shard < this.numShards; shard++) {
+      File file =
+          new File(Shard.getOutputUri(OUT_FILE_URI, shard).resolve("./" + Shard.ARRIVALS_FILE));
+      // A shard whose nodes received no block has no arrivals
+      DataInputStream input =
+          file.isFile()
+              ? new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+              : null;
+      inputs.add(input);
+      files.add(file);
+      Arrival arrival = Arrival.read(input, shard);
+      if (arrival != null) {
+        arrivals.add(arrival);
+      }
+    }
+
+    Arrival arrival;
+    while ((arrival = arrivals.poll()) != null) {
+      if (PRINT_PROPAGATION) {
+        // The shards run proof of work blocks only
+        String block =
+            ProofOfWorkBlock.class.getName() + "@" + Integer.toHexString(arrival.blockId);
+        recorder.record(
+            arrival.blockId, block, arrival.height, arrival.nodeId, arrival.time, System.out);
+      }
+      statistics.record(
+          arrival.blockId, arrival.minterRegion, arrival.nodeRegion, arrival.compact, arrival.time);
+      Arrival next = Arrival.read(inputs.get(arrival.shard), arrival.shard);
+      if (next != null) {
+        arrivals.add(next);
+      }
+    }
+    recorder.printAll(System.out);
+    statistics.print(System.out);
+
+    for (int shard = 0; shard < this.numShards; shard++) {
+      if (inputs.get(shard) != null) {
+        inputs.get(shard).close();
+        Files.delete(files.get(shard).toPath());
+      }
+    }
+  }
+
+  /** The arrival of a block at a node of a shard, see {@link Shard#recordArrival}. */
+  private static class Arrival implements Comparable<Arrival> {
+    private final long arrivalTime;
+    private final int shard;
+    private final int blockId;
+    private final int height;
+    private final long time;
+    private final int minterRegion;
+    private final int nodeId;
+    private final int nodeRegion;
+    private final boolean compact;
+
+    private Arrival(DataInputStream input, long arrivalTime, int shard) throws IOException {
+      this.arrivalTime = arrivalTime;
+      this.shard = shard;
+      this.blockId = input.readInt();
+      this.height = input.readInt();
+      this.time = input.readLong();
+      this.minterRegion = input.readInt();
+      this.nodeId = input.readInt();
+      this.nodeRegion = input.readInt();
+      this.compact = input.readBoolean();
+    }
+
+    /**
+     * Reads the next arrival of a shard.
+     *
+     * @param input the arrivals of the shard or null if it has none
+     * @param shard the index of the shard
+     * @return the arrival or null at the end of the arrivals
+     * @throws IOException if the arrivals cannot be read
+     */
+    private static Arrival read(DataInputStream input, int shard) throws IOException {
+      if (input == null) {
+        return null;
+      }
+      long arrivalTime;
+      try {
+        arrivalTime = input.readLong();
+      } catch (EOFException e) {
+        return null;
+      }
+      return new Arrival(input, arrivalTime, shard);
+    }
+
+    @Override
+    public int compareTo(Arrival other) {
+      if (this.arrivalTime != other.arrivalTime) {
+        return Long.compare(this.arrivalTime, other.arrivalTime);
+      }
+      return Integer.compare(this.shard, other.shard);
+    }
+  }
+
+  /** A line of the log output of a shard, with the time and partition it was written at. */
+  private static class Segment implements Comparable<Segment> {
+    private final long time;
+    private final int partition;
+    private final int shard;
+    private final String text;
+
+    private Segment(long time, int partition, int shard, String text) {
+      this.time = time;
+      this.partition = partition;
+      this.shard = shard;
+      this.text = text;
+    }
+
+    /**
+     * Reads the next line of the log output of a shard.
+     *
+     * @param reader the reader
+     * @param shard the index of the shard
+     * @return the segment or null at the end of the output
+     * @throws IOException if the output cannot be read
+     */
+    private static Segment read(BufferedReader reader, int shard) throws IOException {
+      String line = reader.readLine();
+      if (line == null) {
+        return null;
+      }
+      int timeEnd = line.indexOf('\t');
+      int partitionEnd = line.indexOf('\t', timeEnd + 1);
+      return new Segment(
+          Long.parseLong(line.substring(0, timeEnd)),
+          Integer.parseInt(line.substring(timeEnd + 1, partitionEnd)),
+          shard,
+          line.substring(partitionEnd + 1));
+    }
+
+    @Override
+    public int compareTo(Segment other) {
+      if (this.time != other.time) {
+        return Long.compare(this.time, other.time);
+      }
+      if (this.partition != other.partition) {
+        return Integer.compare(this.partition, other.partition);
+      }
+      return Integer.compare(this.shard, other.shard);
+    }
+  }
+}
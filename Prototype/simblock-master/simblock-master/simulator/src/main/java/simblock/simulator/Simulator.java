@@ -16,11 +16,16 @@
 
 package simblock.simulator;
 
+import static simblock.settings.NetworkConfiguration.REGION_LIST;
+import static simblock.settings.SimulationConfiguration.NUM_OF_NODES;
+import static simblock.settings.SimulationConfiguration.PRINT_PROPAGATION;
+import static simblock.settings.SimulationConfiguration.PROPAGATION_HISTOGRAM_BITS;
+import static simblock.settings.SimulationConfiguration.PRUNE_DEPTH;
 import static simblock.simulator.Timer.getCurrentTime;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import simblock.block.Block;
 import simblock.node.Node;
 
@@ -97,81 +102,113 @@ public class Simulator {
     }
   }
 
-  /** A list of observed {@link Block} instances. */
-  private static final ArrayList<Block> observedBlocks = new ArrayList<>();
+  /** The tree of all blocks received by a node. */
+  private static final BlockTree blockTree = new BlockTree();
 
   /**
-   * A list of observed block propagation times. The map key represents the id of the node that has
-   * seen the block, the value represents the difference between the current time and the block
-   * minting time, effectively recording the absolute time it took for a node to witness the block.
+   * Gets the tree of all blocks received by a node so far, with their fork and stale
+   * classification.
+   *
+   * @return the block tree
+   */
+  public static BlockTree getBlockTree() {
+    return blockTree;
+  }
+
+  /** The store of the blocks of the block tree, null to store none. */
+  private static BlockStore blockStore = null;
+
+  /**
+   * Gets the store of the blocks of the block tree.
+   *
+   * @return the block store or null if blocks are not stored
+   */
+  public static BlockStore getBlockStore() {
+    return blockStore;
+  }
+
+  /**
+   * Sets the store of the blocks of the block tree, to which each new block is added.
+   *
+   * @param store the block store or null to store none
+   */
+  public static void setBlockStore(BlockStore store) {
+    blockStore = store;
+  }
+
+  /** The height of the tip from which the block tree is pruned next. */
+  private static int nextPruneHeight = PRUNE_DEPTH;
+
+  /**
+   * The number of blocks whose propagation is observed at once. The propagation of the oldest
+   * block is printed when a further block is observed.
+   */
+  static final int OBSERVED_BLOCKS = 11;
+
+  /**
+   * The observed block propagation times: for each node that has seen a block, the difference
+   * between the time it has seen the block and the block minting time, effectively recording the
+   * absolute time it took for the node to witness the block.
    */
-  private static final ArrayList<LinkedHashMap<Integer, Long>> observedPropagations =
-      new ArrayList<>();
+  private static final PropagationRecorder observedPropagations =
+      new PropagationRecorder(OBSERVED_BLOCKS, NUM_OF_NODES);
+
+  /** The histograms of the block propagation times of all blocks. */
+  private static final PropagationStatistics propagationStatistics =
+      new PropagationStatistics(REGION_LIST, NUM_OF_NODES, PROPAGATION_HISTOGRAM_BITS);
 
   /**
    * Handle the arrival of a new block. For every observed block, propagation information is
-   * updated, and for a new block propagation information is created.
+   * updated, and for a new block propagation information is created and the block is added to the
+   * block tree and the block store, the tree being pruned every {@link
+   * simblock.settings.SimulationConfiguration#PRUNE_DEPTH} blocks of the tip.
    *
    * @param block the block
    * @param node the node
    */
   public static void arriveBlock(Block block, Node node) {
-    // If block is already seen by any node
-    if (observedBlocks.contains(block)) {
-      // Get the propagation information for the current block
-      LinkedHashMap<Integer, Long> propagation =
-          observedPropagations.get(observedBlocks.indexOf(block));
-      // Update information for the new block
-      propagation.put(node.getNodeID(), getCurrentTime() - block.getTime());
-    } else {
-      // If the block has not been seen by any node and there is no memory allocated
-      // TODO move magic number to constant
-      if (observedBlocks.size() > 10) {
-        // After the observed blocks limit is reached, log and remove old blocks by FIFO
-        // principle
-        printPropagation(observedBlocks.get(0), observedPropagations.get(0));
-        observedBlocks.remove(0);
-        observedPropagations.remove(0);
+    Partition partition = Partition.current();
+    if (partition != null) {
+      // Observed once the parallel engine reaches the current time
+      partition.recordArrival(block, node);
+      return;
+    }
+    if (blockTree.add(block)) {
+      if (blockStore != null) {
+        try {
+          blockStore.add(block);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
       }
-      // If the block has not been seen by any node and there is additional memory
-      LinkedHashMap<Integer, Long> propagation = new LinkedHashMap<>();
-      propagation.put(node.getNodeID(), getCurrentTime() - block.getTime());
-      // Record the block as seen
-      observedBlocks.add(block);
-      // Record the propagation time
-      observedPropagations.add(propagation);
+      if (PRUNE_DEPTH > 0 && block.getHeight() >= nextPruneHeight) {
+        blockTree.prune(simulatedNodes, PRUNE_DEPTH);
+        nextPruneHeight = block.getHeight() + PRUNE_DEPTH;
+      }
+    }
+    long time = getCurrentTime() - block.getTime();
+    if (PRINT_PROPAGATION) {
+      observedPropagations.record(block, node.getNodeID(), time, System.out);
+    }
+    propagationStatistics.record(block, node, time);
+    if (Shard.INDEX >= 0) {
+      Shard.recordArrival(block, node, time);
     }
   }
 
   /**
-   * Print propagation information about the propagation of the provided block in the format:
+   * Print propagation information about all observed blocks in the format:
    *
    * <p><em>node_ID, propagation_time</em>
    *
    * <p><em>propagation_time</em>: The time from when the block of the block ID is generated to when
    * the node of the <em>node_ID</em> is reached.
    *
-   * @param block the block
-   * @param propagation the propagation of the provided block as a list of {@link Node} IDs and
-   *     propagation times
-   */
-  public static void printPropagation(Block block, LinkedHashMap<Integer, Long> propagation) {
-    // Print block and its height
-    // TODO block does not have a toString method, what is printed here
-    System.out.println(block + ":" + block.getHeight());
-    for (Map.Entry<Integer, Long> timeEntry : propagation.entrySet()) {
-      System.out.println(timeEntry.getKey() + "," + timeEntry.getValue());
-    }
-    System.out.println();
-  }
-
-  /**
-   * Print propagation information about all blocks, internally relying on {@link
-   * Simulator#printPropagation(Block, LinkedHashMap)}.
+   * <p>Then print the percentiles of the propagation times of all blocks, by region and relay
+   * protocol, and of the times for 50% and 90% of the nodes to receive a block.
    */
   public static void printAllPropagation() {
-    for (int i = 0; i < observedBlocks.size(); i++) {
-      printPropagation(observedBlocks.get(i), observedPropagations.get(i));
-    }
+    observedPropagations.printAll(System.out);
+    propagationStatistics.print(System.out);
   }
 }
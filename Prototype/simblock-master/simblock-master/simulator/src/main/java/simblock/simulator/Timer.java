@@ -16,110 +16,106 @@
 
 package simblock.simulator;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
+import static simblock.settings.SimulationConfiguration.PARALLEL_THREADS;
+import static simblock.settings.SimulationConfiguration.USE_MESSAGE_EVENT_QUEUE;
+
+import simblock.simulator.queue.ScheduledTask;
 import simblock.task.Task;
 
 /**
  * The type Timer schedules the execution of simulation tasks stored in a Future Event List (FEL) .
  * Each {@link Task} can be scheduled for execution. Tasks that have been run get removed from the
- * FEL.
+ * FEL. The FEL implementation is chosen by {@link
+ * simblock.settings.SimulationConfiguration#TASK_QUEUE}.
+ *
+ * <p>Scheduling a task returns its {@link ScheduledTask}, which serves as a handle to cancel the
+ * task. Cancelled tasks are not removed from the FEL right away but skipped when they reach its
+ * head, see {@link EventList}.
+ *
+ * <p>When {@link simblock.settings.SimulationConfiguration#USE_MESSAGE_EVENT_QUEUE} is set, messages
+ * are held by the {@link MessageEventQueue} and interleaved with the FEL: a message runs before the
+ * head of the FEL only if it is due strictly earlier.
+ *
+ * <p>When the {@link ParallelEngine} runs, tasks scheduled from within a {@link Partition} go to
+ * the FEL of that partition and the time is the time of that partition.
  */
 public class Timer {
 
-  /** A sorted queue of scheduled tasks. */
-  private static final PriorityQueue<ScheduledTask> taskQueue = new PriorityQueue<>();
+  /** The FEL of the sequential engine, also holding the tasks scheduled during the setup. */
+  private static final EventList eventList = new EventList();
 
   /**
-   * A map containing a mapping of all tasks to their ScheduledTask counterparts. When executed, the
-   * key - value pair is to be removed from the mapping.
+   * The next sequence number of a scheduled task. Only the parallel engine needs reproducible
+   * ordering of simultaneous tasks, otherwise all tasks get the same number.
    */
-  // TODO a bit redundant since Task is again stored in ScheduledTask. Is there a
-  // better approach?
-  private static final Map<Task, ScheduledTask> taskMap = new HashMap<>();
+  private static long nextSequence = 0;
+
   /** Initial simulation time in milliseconds. */
   // TODO is it milliseconds?
   private static long currentTime = 0L;
 
-  /** Represents a {@link Task} that is scheduled to be executed. */
-  private static class ScheduledTask implements Comparable<ScheduledTask> {
-    private final Task task;
-    private final long scheduledTime;
-
-    /**
-     * Instantiates a new ScheduledTask.
-     *
-     * @param task - the task to be executed
-     * @param scheduledTime - the simulation time at which the task is to be executed
-     */
-    private ScheduledTask(Task task, long scheduledTime) {
-      this.task = task;
-      this.scheduledTime = scheduledTime;
-    }
-
-    /**
-     * Gets the task.
-     *
-     * @return the {@link Task} instance
-     */
-    private Task getTask() {
-      return this.task;
-    }
-
-    /**
-     * Gets the scheduled time at which the task is to be executed.
-     *
-     * @return the scheduled time
-     */
-    private long getScheduledTime() {
-      return this.scheduledTime;
-    }
-
-    /**
-     * Compares the two scheduled tasks.
-     *
-     * @param o other task
-     * @return 1 if self is executed later, 0 if concurrent and -1 if self is to be executed before.
-     */
-    public int compareTo(ScheduledTask o) {
-      if (this.equals(o)) {
-        return 0;
-      }
-      int order = Long.signum(this.scheduledTime - o.scheduledTime);
-      if (order != 0) {
-        return order;
-      }
-      order = System.identityHashCode(this) - System.identityHashCode(o);
-      return order;
-    }
+  /**
+   * Checks if the next message of the {@link MessageEventQueue} is due before the head of the FEL.
+   *
+   * @param scheduledTask the head of the FEL or null if it is empty
+   * @return true if the message is to be run next
+   */
+  private static boolean isMessageDue(ScheduledTask scheduledTask) {
+    return USE_MESSAGE_EVENT_QUEUE
+        && MessageEventQueue.size() > 0
+        && (scheduledTask == null
+            || MessageEventQueue.peekTime() < scheduledTask.getScheduledTime());
   }
 
   /** Runs a {@link ScheduledTask}. */
   public static void runTask() {
+    ScheduledTask scheduledTask = eventList.peek();
+    if (isMessageDue(scheduledTask)) {
+      currentTime = MessageEventQueue.peekTime();
+      MessageEventQueue.runNext();
+      return;
+    }
     // If there are any tasks
-    if (taskQueue.size() > 0) {
+    if (scheduledTask != null) {
       // Get the next ScheduledTask
-      ScheduledTask currentScheduledTask = taskQueue.poll();
+      ScheduledTask currentScheduledTask = eventList.poll();
       Task currentTask = currentScheduledTask.getTask();
       currentTime = currentScheduledTask.getScheduledTime();
-      // Remove the task from the mapping of all tasks
-      taskMap.remove(currentTask, currentScheduledTask);
       // Execute
       currentTask.run();
     }
   }
 
   /**
-   * Remove task from the mapping of all tasks and from the execution queue.
+   * Removes and returns the next task of the FEL of the sequential engine, used to hand over the
+   * tasks scheduled during the setup to the {@link ParallelEngine}.
    *
-   * @param task the task to be removed
+   * @return the scheduled task or null if the FEL is empty
    */
-  public static void removeTask(Task task) {
-    if (taskMap.containsKey(task)) {
-      ScheduledTask scheduledTask = taskMap.get(task);
-      taskQueue.remove(scheduledTask);
-      taskMap.remove(task, scheduledTask);
+  static ScheduledTask pollScheduledTask() {
+    return eventList.poll();
+  }
+
+  /**
+   * Gets the number of tasks scheduled outside of any partition.
+   *
+   * @return the number of tasks
+   */
+  static long getScheduledTaskCount() {
+    return nextSequence;
+  }
+
+  /**
+   * Cancel a scheduled task. The task stays in the execution queue but will not be executed.
+   *
+   * @param scheduledTask the handle returned when the task was scheduled
+   */
+  public static void removeTask(ScheduledTask scheduledTask) {
+    Partition partition = Partition.current();
+    if (partition != null) {
+      partition.removeTask(scheduledTask);
+    } else {
+      eventList.cancel(scheduledTask);
     }
   }
 
@@ -129,8 +125,11 @@ public class Timer {
    * @return the task from the queue or null if task queue is empty.
    */
   public static Task getTask() {
-    if (taskQueue.size() > 0) {
-      ScheduledTask currentTask = taskQueue.peek();
+    ScheduledTask currentTask = eventList.peek();
+    if (isMessageDue(currentTask)) {
+      return MessageEventQueue.getDispatchTask();
+    }
+    if (currentTask != null) {
       return currentTask.getTask();
     } else {
       return null;
@@ -141,11 +140,10 @@ public class Timer {
    * Schedule task to be executed at the current time incremented by the task duration.
    *
    * @param task the task
+   * @return the handle to cancel the task
    */
-  public static void putTask(Task task) {
-    ScheduledTask scheduledTask = new ScheduledTask(task, currentTime + task.getInterval());
-    taskMap.put(task, scheduledTask);
-    taskQueue.add(scheduledTask);
+  public static ScheduledTask putTask(Task task) {
+    return putTaskAbsoluteTime(task, getCurrentTime() + task.getInterval());
   }
 
   /**
@@ -153,12 +151,17 @@ public class Timer {
    *
    * @param task the task
    * @param time the time in milliseconds
+   * @return the handle to cancel the task
    */
-  @SuppressWarnings("unused")
-  public static void putTaskAbsoluteTime(Task task, long time) {
-    ScheduledTask scheduledTask = new ScheduledTask(task, time);
-    taskMap.put(task, scheduledTask);
-    taskQueue.add(scheduledTask);
+  public static ScheduledTask putTaskAbsoluteTime(Task task, long time) {
+    Partition partition = Partition.current();
+    if (partition != null) {
+      return partition.putTask(task, time);
+    }
+    ScheduledTask scheduledTask =
+        new ScheduledTask(task, time, PARALLEL_THREADS > 0 ? nextSequence++ : 0);
+    eventList.add(scheduledTask);
+    return scheduledTask;
   }
 
   /**
@@ -167,6 +170,17 @@ public class Timer {
    * @return the time
    */
   public static long getCurrentTime() {
-    return currentTime;
+    Partition partition = Partition.current();
+    return partition != null ? partition.getCurrentTime() : currentTime;
+  }
+
+  /**
+   * Sets the current time outside of any partition, used by the {@link ParallelEngine} when it
+   * runs tasks or applies their effects itself.
+   *
+   * @param time the time in milliseconds
+   */
+  static void setCurrentTime(long time) {
+    currentTime = time;
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator;
+
+import static simblock.simulator.EventEncoder.ADD_BLOCK_RECORD;
+import static simblock.simulator.EventEncoder.ADD_LINK_RECORD;
+import static simblock.simulator.EventEncoder.ADD_NODE_RECORD;
+import static simblock.simulator.EventEncoder.FLOW_BLOCK_RECORD;
+import static simblock.simulator.EventEncoder.JSON_RECORD;
+import static simblock.simulator.EventEncoder.MAGIC;
+import static simblock.simulator.EventEncoder.REMOVE_LINK_RECORD;
+import static simblock.simulator.EventEncoder.SIMULATION_END_RECORD;
+import static simblock.simulator.EventEncoder.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The type Trace converter converts a binary trace written with {@link
+ * simblock.settings.SimulationConfiguration#BINARY_TRACE} into the output.json and static.json the
+ * simulation writes otherwise, streaming the records. The configuration of the run is printed to
+ * the standard output.
+ *
+ * <p>Usage: {@code TraceConverter <trace file> [<output directory>]}, the output directory being
+ * the directory of the trace by default.
+ */
+public class TraceConverter {
+  private final DataInputStream in;
+
+  /**
+   * Instantiates a new Trace converter.
+   *
+   * @param in the trace
+   */
+  TraceConverter(InputStream in) {
+    this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+  }
+
+  /**
+   * The entry point of the converter.
+   *
+   * @param args the trace file and the output directory
+   * @throws IOException if the trace cannot be read or the output cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: TraceConverter <trace file> [<output directory>]");
+      System.exit(1);
+    }
+    File trace = new File(args[0]);
+    File directory = args.length > 1 ? new File(args[1]) : trace.getAbsoluteFile().getParentFile();
+    try (InputStream in = new FileInputStream(trace)) {
+      TraceConverter converter = new TraceConverter(in);
+      List<String> regions = converter.readHeader();
+      try (PrintWriter out =
+          new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "static.json"))))) {
+        Network.printRegion(out, regions);
+      }
+      try (Writer out =
+          new BufferedWriter(new FileWriter(new File(directory, "output.json")), 1 << 16)) {
+        converter.convert(regions, out);
+      }
+    }
+  }
+
+  /**
+   * Reads the header of the trace, printing the configuration of the run.
+   *
+   * @return the region list
+   * @throws IOException if the trace is not a binary trace of this version
+   */
+  List<String> readHeader() throws IOException {
+    for (int i = 0; i < MAGIC.length(); i++) {
+      if (this.in.readUnsignedByte() != MAGIC.charAt(i)) {
+        throw new IOException("Not a binary trace");
+      }
+    }
+    long version = this.readVarint();
+    if (version != VERSION) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+    int numRegions = (int) this.readVarint();
+    List<String> regions = new ArrayList<>(numRegions);
+    for (int i = 0; i < numRegions; i++) {
+      regions.add(this.readString());
+    }
+    long numSettings = this.readVarint();
+    for (long i = 0; i < numSettings; i++) {
+      System.out.println(this.readString() + "=" + this.readString());
+    }
+    return regions;
+  }
+
+  /**
+   * Converts the records of the trace into the JSON log output, until the end of the trace.
+   *
+   * @param regions the region list
+   * @param out the writer of the JSON log output
+   * @throws IOException if the trace is corrupted or the output cannot be written
+   */
+  void convert(List<String> regions, Writer out) throws IOException {
+    EventEncoder encoder = new EventEncoder(false);
+    encoder.start(regions).writeTo(out);
+    int record;
+    while ((record = this.in.read()) >= 0) {
+      switch (record) {
+        case ADD_NODE_RECORD:
+          encoder.addNode(this.readInt(), this.readInt());
+          break;
+        case ADD_LINK_RECORD:
+          encoder.addLink(this.readVarint(), this.readInt(), this.readInt());
+          break;
+        case REMOVE_LINK_RECORD:
+          encoder.removeLink(this.readVarint(), this.readInt(), this.readInt());
+          break;
+        case ADD_BLOCK_RECORD:
+          encoder.addBlock(this.readVarint(), this.readInt(), this.readInt());
+          break;
+        case FLOW_BLOCK_RECORD:
+          long receptionTime = this.readVarint();
+          long transmissionTime = receptionTime - this.readVarint();
+          encoder.flowBlock(
+              transmissionTime, receptionTime, this.readInt(), this.readInt(), this.readInt());
+          break;
+        case SIMULATION_END_RECORD:
+          encoder.simulationEnd(this.readVarint());
+          break;
+        case JSON_RECORD:
+          encoder.json(this.readString());
+          break;
+        default:
+          throw new IOException("Unknown record " + record);
+      }
+      encoder.writeTo(out);
+    }
+  }
+
+  private int readInt() throws IOException {
+    return (int) this.readVarint();
+  }
+
+  /**
+   * Reads a zigzag varint, see {@link EventEncoder}.
+   *
+   * @return the number
+   * @throws IOException if the trace ends within the number
+   */
+  private long readVarint() throws IOException {
+    long bits = 0;
+    for (int shift = 0; ; shift += 7) {
+      int value = this.in.read();
+      if (value < 0) {
+        throw new EOFException("Truncated record");
+      }
+      bits |= (long) (value & 0x7f) << shift;
+      if ((value & 0x80) == 0) {
+        return (bits >>> 1) ^ -(bits & 1);
+      }
+    }
+  }
+
+  private String readString() throws IOException {
+    byte[] bytes = new byte[this.readInt()];
+    this.in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.queue;
+
+/**
+ * An abstraction of the Future Event List (FEL) used by the {@link simblock.simulator.Timer}.
+ * Implementations must hand out {@link ScheduledTask} instances in the order defined by {@link
+ * ScheduledTask#compareTo(ScheduledTask)}. Cancelled tasks are dropped lazily by the timer, so
+ * implementations do not support removal.
+ */
+public abstract class AbstractTaskQueue {
+
+  /**
+   * Adds a scheduled task to the queue.
+   *
+   * @param scheduledTask the scheduled task
+   */
+  public abstract void add(ScheduledTask scheduledTask);
+
+  /**
+   * Removes and returns the scheduled task to be executed next.
+   *
+   * @return the scheduled task or null if the queue is empty
+   */
+  public abstract ScheduledTask poll();
+
+  /**
+   * Returns the scheduled task to be executed next without removing it.
+   *
+   * @return the scheduled task or null if the queue is empty
+   */
+  public abstract ScheduledTask peek();
+
+  /**
+   * Gets the number of queued tasks.
+   *
+   * @return the size
+   */
+  public abstract int size();
+}
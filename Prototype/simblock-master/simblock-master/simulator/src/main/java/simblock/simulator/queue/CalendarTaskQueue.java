@@ -0,0 +1,313 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.queue;
+
+import java.util.Arrays;
+
+/**
+ * The implementation of the {@link AbstractTaskQueue} representing a calendar queue (R. Brown,
+ * "Calendar queues: a fast O(1) priority queue implementation for the simulation event set
+ * problem", 1988).
+ *
+ * <p>Scheduled tasks are hashed by time into a ring of buckets ("days") of equal width, each bucket
+ * holding an unsorted singly linked list threaded through {@link ScheduledTask#next}. Similar to
+ * the bottom rung of a ladder queue, only the tasks of the current day are kept sorted, in a small
+ * binary heap, so many simultaneous tasks do not degrade insertion. Enqueue and dequeue cost O(1)
+ * amortized as long as the bucket width matches the event density. The ring doubles or halves with
+ * the queue size and the width is re-estimated from the tasks at the front of the queue on every
+ * resize.
+ */
+@SuppressWarnings("unused")
+public class CalendarTaskQueue extends AbstractTaskQueue {
+  /** The minimal number of buckets, must be a power of two. */
+  private static final int MIN_BUCKETS = 16;
+
+  /** The number of tasks sampled from the front of the queue to estimate the bucket width. */
+  private static final int WIDTH_SAMPLES = 25;
+
+  /** The buckets, each one an unsorted linked list of scheduled tasks. */
+  private ScheduledTask[] buckets;
+
+  /** Bit mask mapping a day to a bucket index. */
+  private int mask;
+
+  /** The width of a bucket in milliseconds. */
+  private long width;
+
+  /** The number of queued tasks, including the current day. */
+  private int size = 0;
+
+  /** The bucket holding the current day. */
+  private int lastBucket = 0;
+
+  /** The exclusive upper time bound of the current day. */
+  private long bucketTop;
+
+  /** A binary heap holding the tasks of the current day and earlier. */
+  private ScheduledTask[] today = new ScheduledTask[64];
+
+  /** The number of tasks in the current day heap. */
+  private int todaySize = 0;
+
+  /** Instantiates a new Calendar task queue. */
+  public CalendarTaskQueue() {
+    this.init(MIN_BUCKETS, 1L, 0L);
+  }
+
+  /**
+   * Allocates an empty ring of buckets.
+   *
+   * @param numBuckets the number of buckets, a power of two
+   * @param width the width of a bucket in milliseconds
+   * @param startTime the time the scan starts from
+   */
+  private void init(int numBuckets, long width, long startTime) {
+    this.buckets = new ScheduledTask[numBuckets];
+    this.mask = numBuckets - 1;
+    this.width = width;
+    this.lastBucket = this.bucketOf(startTime);
+    this.bucketTop = (startTime / width + 1) * width;
+  }
+
+  private int bucketOf(long time) {
+    return (int) ((time / this.width) & this.mask);
+  }
+
+  /**
+   * Puts the scheduled task either in the current day heap or in its bucket.
+   *
+   * @param scheduledTask the scheduled task
+   */
+  private void insert(ScheduledTask scheduledTask) {
+    if (scheduledTask.getScheduledTime() < this.bucketTop) {
+      this.offerToday(scheduledTask);
+    } else {
+      int index = this.bucketOf(scheduledTask.getScheduledTime());
+      scheduledTask.next = this.buckets[index];
+      this.buckets[index] = scheduledTask;
+    }
+  }
+
+  @Override
+  public void add(ScheduledTask scheduledTask) {
+    this.insert(scheduledTask);
+    this.size++;
+    if (this.size > this.buckets.length * 2) {
+      this.resize(this.buckets.length * 2);
+    }
+  }
+
+  /**
+   * Moves the tasks of the current day from its bucket to the current day heap.
+   *
+   * @return true if any task was moved
+   */
+  private boolean collectToday() {
+    ScheduledTask current = this.buckets[this.lastBucket];
+    ScheduledTask remaining = null;
+    boolean found = false;
+    while (current != null) {
+      ScheduledTask next = current.next;
+      if (current.getScheduledTime() < this.bucketTop) {
+        current.next = null;
+        this.offerToday(current);
+        found = true;
+      } else {
+        current.next = remaining;
+        remaining = current;
+      }
+      current = next;
+    }
+    this.buckets[this.lastBucket] = remaining;
+    return found;
+  }
+
+  /**
+   * Finds the earliest task, advancing the current day until its heap is not empty.
+   *
+   * @return the earliest task or null if the queue is empty
+   */
+  private ScheduledTask locate() {
+    if (this.todaySize > 0) {
+      return this.today[0];
+    }
+    if (this.size == 0) {
+      return null;
+    }
+    for (int i = 0; i < this.buckets.length; i++) {
+      this.lastBucket = (this.lastBucket + 1) & this.mask;
+      this.bucketTop += this.width;
+      if (this.collectToday()) {
+        return this.today[0];
+      }
+    }
+
+    // No task within a year of the current day, fall back to a direct search
+    long min = Long.MAX_VALUE;
+    for (ScheduledTask head : this.buckets) {
+      for (ScheduledTask current = head; current != null; current = current.next) {
+        min = Math.min(min, current.getScheduledTime());
+      }
+    }
+    this.lastBucket = this.bucketOf(min);
+    this.bucketTop = (min / this.width + 1) * this.width;
+    this.collectToday();
+    return this.today[0];
+  }
+
+  @Override
+  public ScheduledTask poll() {
+    ScheduledTask head = this.locate();
+    if (head == null) {
+      return null;
+    }
+    this.removeToday(0);
+    this.size--;
+    if (this.buckets.length > MIN_BUCKETS && this.size < this.buckets.length / 2) {
+      this.resize(this.buckets.length / 2);
+    }
+    return head;
+  }
+
+  @Override
+  public ScheduledTask peek() {
+    return this.locate();
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Rebuilds the ring with the provided number of buckets and a bucket width estimated from the
+   * average separation of the tasks at the front of the queue.
+   *
+   * @param numBuckets the new number of buckets
+   */
+  private void resize(int numBuckets) {
+    // Take samples from the front of the queue
+    int numSamples = Math.min(WIDTH_SAMPLES, this.size);
+    ScheduledTask[] samples = new ScheduledTask[numSamples];
+    for (int i = 0; i < numSamples; i++) {
+      samples[i] = this.locate();
+      this.removeToday(0);
+    }
+
+    long newWidth = this.width;
+    if (numSamples > 1) {
+      long first = samples[0].getScheduledTime();
+      long last = samples[numSamples - 1].getScheduledTime();
+      double average = (double) (last - first) / (numSamples - 1);
+      // Recompute the average ignoring separations that are much larger than the average
+      long sum = 0;
+      int count = 0;
+      for (int i = 1; i < numSamples; i++) {
+        long separation = samples[i].getScheduledTime() - samples[i - 1].getScheduledTime();
+        if (separation <= 2 * average) {
+          sum += separation;
+          count++;
+        }
+      }
+      if (count > 0) {
+        newWidth = Math.max(1L, Math.round(3.0 * sum / count));
+      }
+    }
+
+    ScheduledTask[] oldBuckets = this.buckets;
+    ScheduledTask[] oldToday = this.today;
+    int oldTodaySize = this.todaySize;
+    this.today = new ScheduledTask[Math.max(64, oldTodaySize + numSamples)];
+    this.todaySize = 0;
+    long startTime = numSamples > 0 ? samples[0].getScheduledTime() : this.bucketTop - this.width;
+    this.init(numBuckets, newWidth, startTime);
+    for (ScheduledTask sample : samples) {
+      this.insert(sample);
+    }
+    for (int i = 0; i < oldTodaySize; i++) {
+      this.insert(oldToday[i]);
+    }
+    for (ScheduledTask head : oldBuckets) {
+      while (head != null) {
+        ScheduledTask next = head.next;
+        head.next = null;
+        this.insert(head);
+        head = next;
+      }
+    }
+  }
+
+  /**
+   * Adds the scheduled task to the current day heap.
+   *
+   * @param scheduledTask the scheduled task
+   */
+  private void offerToday(ScheduledTask scheduledTask) {
+    if (this.todaySize == this.today.length) {
+      this.today = Arrays.copyOf(this.today, this.todaySize * 2);
+    }
+    int i = this.todaySize++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (this.today[parent].compareTo(scheduledTask) <= 0) {
+        break;
+      }
+      this.today[i] = this.today[parent];
+      i = parent;
+    }
+    this.today[i] = scheduledTask;
+  }
+
+  /**
+   * Removes the entry at the provided position of the current day heap.
+   *
+   * @param index the position in the heap
+   */
+  private void removeToday(int index) {
+    int last = --this.todaySize;
+    ScheduledTask moved = this.today[last];
+    this.today[last] = null;
+    if (index == last) {
+      return;
+    }
+    // Sift down
+    int i = index;
+    int half = last >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < last && this.today[right].compareTo(this.today[child]) < 0) {
+        child = right;
+      }
+      if (moved.compareTo(this.today[child]) <= 0) {
+        break;
+      }
+      this.today[i] = this.today[child];
+      i = child;
+    }
+    // Sift up in case the moved entry precedes the parent of the removed one
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (this.today[parent].compareTo(moved) <= 0) {
+        break;
+      }
+      this.today[i] = this.today[parent];
+      i = parent;
+    }
+    this.today[i] = moved;
+  }
+}
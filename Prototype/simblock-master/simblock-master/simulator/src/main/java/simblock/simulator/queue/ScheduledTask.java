@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.queue;
+
+import simblock.task.Task;
+
+/**
+ * Represents a {@link Task} that is scheduled to be executed. It also serves as the handle to
+ * cancel the task.
+ */
+public class ScheduledTask implements Comparable<ScheduledTask> {
+  private final Task task;
+  private final long scheduledTime;
+
+  /**
+   * Orders tasks scheduled at the same time. Tasks with equal sequence numbers are ordered
+   * arbitrarily.
+   */
+  private final long sequence;
+
+  /** Whether the task has been cancelled and is to be skipped. */
+  private boolean cancelled = false;
+
+  /** Whether the task has been taken from the queue to be run. */
+  private boolean polled = false;
+
+  /** The next entry in the same bucket, only used by {@link CalendarTaskQueue}. */
+  ScheduledTask next;
+
+  /**
+   * Instantiates a new ScheduledTask.
+   *
+   * @param task - the task to be executed
+   * @param scheduledTime - the simulation time at which the task is to be executed
+   */
+  public ScheduledTask(Task task, long scheduledTime) {
+    this(task, scheduledTime, 0);
+  }
+
+  /**
+   * Instantiates a new ScheduledTask with a sequence number, so that tasks scheduled at the same
+   * time are executed in a reproducible order.
+   *
+   * @param task - the task to be executed
+   * @param scheduledTime - the simulation time at which the task is to be executed
+   * @param sequence - the sequence number ordering tasks scheduled at the same time
+   */
+  public ScheduledTask(Task task, long scheduledTime, long sequence) {
+    this.task = task;
+    this.scheduledTime = scheduledTime;
+    this.sequence = sequence;
+  }
+
+  /**
+   * Gets the task.
+   *
+   * @return the {@link Task} instance
+   */
+  public Task getTask() {
+    return this.task;
+  }
+
+  /**
+   * Gets the scheduled time at which the task is to be executed.
+   *
+   * @return the scheduled time
+   */
+  public long getScheduledTime() {
+    return this.scheduledTime;
+  }
+
+  /**
+   * Gets the sequence number ordering tasks scheduled at the same time.
+   *
+   * @return the sequence number
+   */
+  public long getSequence() {
+    return this.sequence;
+  }
+
+  /** Cancels the task. */
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  /** Reverts the cancellation of the task, used when a speculative execution is rolled back. */
+  public void uncancel() {
+    this.cancelled = false;
+  }
+
+  /**
+   * Checks if the task has been cancelled.
+   *
+   * @return true if the task is not to be executed
+   */
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * Sets whether the task has been taken from the queue to be run.
+   *
+   * @param polled true once the task is taken, false when it is queued again
+   */
+  public void setPolled(boolean polled) {
+    this.polled = polled;
+  }
+
+  /**
+   * Checks if the task has been taken from the queue to be run.
+   *
+   * @return true if the task is no longer queued
+   */
+  public boolean isPolled() {
+    return this.polled;
+  }
+
+  /**
+   * Compares the two scheduled tasks.
+   *
+   * @param o other task
+   * @return 1 if self is executed later, 0 if concurrent and -1 if self is to be executed before.
+   */
+  public int compareTo(ScheduledTask o) {
+    if (this.equals(o)) {
+      return 0;
+    }
+    int order = Long.signum(this.scheduledTime - o.scheduledTime);
+    if (order != 0) {
+      return order;
+    }
+    order = Long.signum(this.sequence - o.sequence);
+    if (order != 0) {
+      return order;
+    }
+    order = System.identityHashCode(this) - System.identityHashCode(o);
+    return order;
+  }
+}
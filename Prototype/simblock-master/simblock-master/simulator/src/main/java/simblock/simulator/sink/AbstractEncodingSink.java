@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import java.util.List;
+import simblock.simulator.EventEncoder;
+
+/**
+ * An event sink encoding each event with an {@link EventEncoder} of the calling thread and
+ * emitting it at once.
+ */
+public abstract class AbstractEncodingSink extends AbstractEventSink {
+  /** The encoder of each thread, as the partitions of the parallel engine log concurrently. */
+  private final ThreadLocal<EventEncoder> encoders;
+
+  /**
+   * Instantiates a new Encoding sink.
+   *
+   * @param binary whether the events are encoded as binary records rather than JSON
+   */
+  protected AbstractEncodingSink(boolean binary) {
+    this.encoders = ThreadLocal.withInitial(() -> new EventEncoder(binary));
+  }
+
+  /**
+   * Emits the event encoded, resetting the encoder.
+   *
+   * @param encoder the encoder holding the event
+   */
+  protected abstract void emit(EventEncoder encoder);
+
+  @Override
+  public void start(List<String> regions) {
+    this.emit(this.encoders.get().start(regions));
+  }
+
+  @Override
+  public void addNode(int nodeId, int regionId) {
+    this.emit(this.encoders.get().addNode(nodeId, regionId));
+  }
+
+  @Override
+  public void addLink(long time, int beginNodeId, int endNodeId) {
+    this.emit(this.encoders.get().addLink(time, beginNodeId, endNodeId));
+  }
+
+  @Override
+  public void removeLink(long time, int beginNodeId, int endNodeId) {
+    this.emit(this.encoders.get().removeLink(time, beginNodeId, endNodeId));
+  }
+
+  @Override
+  public void addBlock(long time, int nodeId, int blockId) {
+    this.emit(this.encoders.get().addBlock(time, nodeId, blockId));
+  }
+
+  @Override
+  public void flowBlock(
+      long transmissionTime, long receptionTime, int beginNodeId, int endNodeId, int blockId) {
+    this.emit(
+        this.encoders
+            .get()
+            .flowBlock(transmissionTime, receptionTime, beginNodeId, endNodeId, blockId));
+  }
+
+  @Override
+  public void json(String kind, String event) {
+    this.emit(this.encoders.get().json(event));
+  }
+
+  @Override
+  public void simulationEnd(long time) {
+    this.emit(this.encoders.get().simulationEnd(time));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import java.util.List;
+
+/**
+ * An abstraction of a destination of the events logged by the simulation, routed by {@link
+ * EventSinks}. Implementations must have a public constructor without arguments and may be called
+ * concurrently by the threads of the parallel engine.
+ */
+public abstract class AbstractEventSink {
+
+  /**
+   * Receives the start of the log output.
+   *
+   * @param regions the region list
+   */
+  public abstract void start(List<String> regions);
+
+  /**
+   * Receives the addition of a node at the start of the simulation.
+   *
+   * @param nodeId the node id
+   * @param regionId the region id of the node
+   */
+  public abstract void addNode(int nodeId, int regionId);
+
+  /**
+   * Receives the addition of a link between two nodes.
+   *
+   * @param time the time in milliseconds
+   * @param beginNodeId the id of the node adding the link
+   * @param endNodeId the id of the node linked to
+   */
+  public abstract void addLink(long time, int beginNodeId, int endNodeId);
+
+  /**
+   * Receives the removal of a link between two nodes.
+   *
+   * @param time the time in milliseconds
+   * @param beginNodeId the id of the node removing the link
+   * @param endNodeId the id of the node unlinked from
+   */
+  public abstract void removeLink(long time, int beginNodeId, int endNodeId);
+
+  /**
+   * Receives the addition of a block to the chain of a node.
+   *
+   * @param time the time in milliseconds
+   * @param nodeId the node id
+   * @param blockId the block id
+   */
+  public abstract void addBlock(long time, int nodeId, int blockId);
+
+  /**
+   * Receives the transmission of a block between two nodes.
+   *
+   * @param transmissionTime the time the transmission started in milliseconds
+   * @param receptionTime the time the block was received in milliseconds
+   * @param beginNodeId the id of the sender
+   * @param endNodeId the id of the receiver
+   * @param blockId the block id
+   */
+  public abstract void flowBlock(
+      long transmissionTime, long receptionTime, int beginNodeId, int endNodeId, int blockId);
+
+  /**
+   * Receives an event given as a JSON object.
+   *
+   * @param kind the kind of the event
+   * @param event the JSON object
+   */
+  public abstract void json(String kind, String event);
+
+  /**
+   * Receives the end of the simulation, the last event.
+   *
+   * @param time the time in milliseconds
+   */
+  public abstract void simulationEnd(long time);
+
+  /** Releases the resources of the sink once the simulation has ended. */
+  public void close() {}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import static simblock.settings.SimulationConfiguration.EVENT_SINKS;
+import static simblock.settings.SimulationConfiguration.LOG_EXCLUDED_KINDS;
+import static simblock.settings.SimulationConfiguration.LOG_SAMPLING_MODE;
+import static simblock.settings.SimulationConfiguration.LOG_SAMPLING_RATE;
+import static simblock.settings.SimulationConfiguration.LOG_SAMPLING_SEED;
+import static simblock.settings.SimulationConfiguration.NUM_OF_NODES;
+import static simblock.settings.SimulationConfiguration.NUM_OF_SHARDS;
+import static simblock.settings.SimulationConfiguration.PARALLEL_OPTIMISTIC;
+import static simblock.settings.SimulationConfiguration.PARALLEL_THREADS;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The type Event sinks routes each event logged by the simulation to the sinks of {@link
+ * simblock.settings.SimulationConfiguration#EVENT_SINKS}. The event kinds of {@link
+ * simblock.settings.SimulationConfiguration#LOG_EXCLUDED_KINDS} are dropped before reaching any
+ * sink, so that they cost nothing to encode. The start and the end of the simulation are always
+ * routed.
+ *
+ * <p>With a {@link simblock.settings.SimulationConfiguration#LOG_SAMPLING_RATE} below 1, the
+ * flow-block and add-block events are only routed for a sample of the nodes or blocks, each id
+ * being sampled by a hash of the seed and the id. A log-sampling event following the start gives
+ * the mode, rate and seed, the weight of a sampled event, and the ids of the sampled nodes, so that
+ * estimates such as propagation percentiles can be reweighted.
+ */
+public final class EventSinks {
+  private static final AbstractEventSink[] SINKS = createSinks(EVENT_SINKS);
+
+  private static final boolean ADD_NODE = isLogged("add-node");
+  private static final boolean ADD_LINK = isLogged("add-link");
+  private static final boolean REMOVE_LINK = isLogged("remove-link");
+  private static final boolean ADD_BLOCK = isLogged("add-block");
+  private static final boolean FLOW_BLOCK = isLogged("flow-block");
+
+  /** Whether the flow-block and add-block events are sampled. */
+  private static final boolean SAMPLING = LOG_SAMPLING_RATE < 1;
+
+  /** Whether nodes rather than blocks are sampled. */
+  private static final boolean SAMPLING_NODES = isSamplingNodes(LOG_SAMPLING_MODE);
+
+  private EventSinks() {}
+
+  /**
+   * Instantiates the sink implementations.
+   *
+   * @param sinkNames the class names of the sinks
+   * @return the sinks
+   * @throws IllegalArgumentException if a sink is unknown or not supported by the engine
+   */
+  private static AbstractEventSink[] createSinks(String[] sinkNames) {
+    AbstractEventSink[] sinks = new AbstractEventSink[sinkNames.length];
+    // Only the log file is ordered and rolled back by the parallel engine
+    boolean replayed = NUM_OF_SHARDS > 0 || PARALLEL_THREADS > 0 && PARALLEL_OPTIMISTIC;
+    for (int i = 0; i < sinkNames.length; i++) {
+      try {
+        sinks[i] =
+            (AbstractEventSink) Class.forName(sinkNames[i]).getConstructor().newInstance();
+      } catch (Exception e) {
+        throw new IllegalArgumentException("Unknown event sink: " + sinkNames[i], e);
+      }
+      if (replayed && !(sinks[i] instanceof LogFileSink || sinks[i] instanceof NullEventSink)) {
+        throw new IllegalArgumentException(
+            "A sharded or optimistic simulation does not support the event sink " + sinkNames[i]);
+      }
+    }
+    return sinks;
+  }
+
+  private static boolean isSamplingNodes(String mode) {
+    if (!mode.equals("NODE") && !mode.equals("BLOCK")) {
+      throw new IllegalArgumentException("Unknown log sampling mode: " + mode);
+    }
+    return mode.equals("NODE");
+  }
+
+  /**
+   * Whether a node or block belongs to the sample of the configuration, from a SplitMix64 hash of
+   * the seed and the id.
+   *
+   * @param id the node or block id
+   * @return true if the id is sampled
+   */
+  public static boolean isSampled(int id) {
+    long bits = LOG_SAMPLING_SEED + (id + 1) * 0x9e3779b97f4a7c15L;
+    bits = (bits ^ (bits >>> 30)) * 0xbf58476d1ce4e5b9L;
+    bits = (bits ^ (bits >>> 27)) * 0x94d049bb133111ebL;
+    bits ^= bits >>> 31;
+    return (bits >>> 11) * 0x1.0p-53 < LOG_SAMPLING_RATE;
+  }
+
+  /**
+   * Whether an event kind is routed to the sinks.
+   *
+   * @param kind the kind of the event
+   * @return false if the kind is excluded by the configuration
+   */
+  public static boolean isLogged(String kind) {
+    return !Arrays.asList(LOG_EXCLUDED_KINDS).contains(kind);
+  }
+
+  /**
+   * Gets the first configured sink of a type.
+   *
+   * @param <T> the type of the sink
+   * @param type the class of the sink
+   * @return the sink or null if no sink of the type is configured
+   */
+  public static <T extends AbstractEventSink> T getSink(Class<T> type) {
+    for (AbstractEventSink sink : SINKS) {
+      if (type.isInstance(sink)) {
+        return type.cast(sink);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Logs the start of the log output.
+   *
+   * @param regions the region list
+   */
+  public static void printStart(List<String> regions) {
+    for (AbstractEventSink sink : SINKS) {
+      sink.start(regions);
+    }
+    if (SAMPLING) {
+      printSampling();
+    }
+  }
+
+  /** Logs the sampling of the flow-block and add-block events. */
+  private static void printSampling() {
+    StringBuilder event = new StringBuilder();
+    event.append("{\"kind\":\"log-sampling\",\"content\":{\"timestamp\":0");
+    event.append(",\"mode\":\"").append(SAMPLING_NODES ? "node" : "block").append("\"");
+    event.append(",\"rate\":").append(LOG_SAMPLING_RATE);
+    event.append(",\"seed\":").append(LOG_SAMPLING_SEED);
+    event.append(",\"weight\":").append(1 / LOG_SAMPLING_RATE);
+    event.append(",\"sampled-kinds\":[\"flow-block\",\"add-block\"]");
+    if (SAMPLING_NODES) {
+      event.append(",\"sampled-node-ids\":[");
+      String separator = "";
+      for (int id = 1; id <= NUM_OF_NODES; id++) {
+        if (isSampled(id)) {
+          event.append(separator).append(id);
+          separator = ",";
+        }
+      }
+      event.append("]");
+    }
+    printJson("log-sampling", event.append("}}").toString());
+  }
+
+  /**
+   * Logs the addition of a node at the start of the simulation.
+   *
+   * @param nodeId the node id
+   * @param regionId the region id of the node
+   */
+  public static void printAddNode(int nodeId, int regionId) {
+    if (ADD_NODE) {
+      for (AbstractEventSink sink : SINKS) {
+        sink.addNode(nodeId, regionId);
+      }
+    }
+  }
+
+  /**
+   * Logs the addition of a link between two nodes.
+   *
+   * @param time the time in milliseconds
+   * @param beginNodeId the id of the node adding the link
+   * @param endNodeId the id of the node linked to
+   */
+  public static void printAddLink(long time, int beginNodeId, int endNodeId) {
+    if (ADD_LINK) {
+      for (AbstractEventSink sink : SINKS) {
+        sink.addLink(time, beginNodeId, endNodeId);
+      }
+    }
+  }
+
+  /**
+   * Logs the removal of a link between two nodes.
+   *
+   * @param time the time in milliseconds
+   * @param beginNodeId the id of the node removing the link
+   * @param endNodeId the id of the node unlinked from
+   */
+  public static void printRemoveLink(long time, int beginNodeId, int endNodeId) {
+    if (REMOVE_LINK) {
+      for (AbstractEventSink sink : SINKS) {
+        sink.removeLink(time, beginNodeId, endNodeId);
+      }
+    }
+  }
+
+  /**
+   * Logs the addition of a block to the chain of a node.
+   *
+   * @param time the time in milliseconds
+   * @param nodeId the node id
+   * @param blockId the block id
+   */
+  public static void printAddBlock(long time, int nodeId, int blockId) {
+    if (ADD_BLOCK && (!SAMPLING || isSampled(SAMPLING_NODES ? nodeId : blockId))) {
+      for (AbstractEventSink sink : SINKS) {
+        sink.addBlock(time, nodeId, blockId);
+      }
+    }
+  }
+
+  /**
+   * Logs the transmission of a block between two nodes.
+   *
+   * @param transmissionTime the time the transmission started in milliseconds
+   * @param receptionTime the time the block was received in milliseconds
+   * @param beginNodeId the id of the sender
+   * @param endNodeId the id of the receiver
+   * @param blockId the block id
+   */
+  public static void printFlowBlock(
+      long transmissionTime, long receptionTime, int beginNodeId, int endNodeId, int blockId) {
+    if (FLOW_BLOCK && (!SAMPLING || isSampled(SAMPLING_NODES ? endNodeId : blockId))) {
+      for (AbstractEventSink sink : SINKS) {
+        sink.flowBlock(transmissionTime, receptionTime, beginNodeId, endNodeId, blockId);
+      }
+    }
+  }
+
+  /**
+   * Logs an event given as a JSON object.
+   *
+   * @param kind the kind of the event
+   * @param event the JSON object
+   */
+  public static void printJson(String kind, String event) {
+    if (isLogged(kind)) {
+      for (AbstractEventSink sink : SINKS) {
+        sink.json(kind, event);
+      }
+    }
+  }
+
+  /**
+   * Logs the end of the simulation, the last event.
+   *
+   * @param time the time in milliseconds
+   */
+  public static void printSimulationEnd(long time) {
+    for (AbstractEventSink sink : SINKS) {
+      sink.simulationEnd(time);
+    }
+  }
+
+  /** Closes the sinks once the simulation has ended. */
+  public static void close() {
+    for (AbstractEventSink sink : SINKS) {
+      sink.close();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import java.util.List;
+import simblock.simulator.EventEncoder;
+import simblock.simulator.Main;
+
+/**
+ * The event sink sending every event as a JSON object to the Flask ingest endpoint with the {@link
+ * simblock.simulator.EventForwarder} of {@link Main#getForwarder()}. The simulation then no longer
+ * posts the events it logs itself, so that each is sent once. The forwarder is closed by the
+ * simulation after the sinks.
+ */
+public class HttpEventSink extends AbstractEncodingSink {
+
+  /** Instantiates a new Http event sink. */
+  public HttpEventSink() {
+    super(false);
+  }
+
+  @Override
+  public void start(List<String> regions) {}
+
+  @Override
+  protected void emit(EventEncoder encoder) {
+    Main.getForwarder().submit(encoder.takeEvent());
+  }
+}
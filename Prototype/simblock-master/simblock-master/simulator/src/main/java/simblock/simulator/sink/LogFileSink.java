@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import static simblock.settings.SimulationConfiguration.BINARY_TRACE;
+
+import simblock.simulator.EventEncoder;
+import simblock.simulator.Main;
+
+/**
+ * The event sink writing the log file, output.json or the binary trace depending on {@link
+ * simblock.settings.SimulationConfiguration#BINARY_TRACE}, through {@link Main#OUT_JSON_FILE}. The
+ * parallel engine orders its output by time and discards the output of rolled back partitions.
+ */
+public class LogFileSink extends AbstractEncodingSink {
+
+  /** Instantiates a new Log file sink. */
+  public LogFileSink() {
+    super(BINARY_TRACE);
+  }
+
+  @Override
+  protected void emit(EventEncoder encoder) {
+    encoder.printTo(Main.OUT_JSON_FILE);
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+import simblock.simulator.EventEncoder;
+
+/**
+ * The event sink keeping the events in memory as JSON objects, in the order they are logged, to
+ * be inspected once the simulation has ended. See {@link EventSinks#getSink(Class)}.
+ */
+public class MemoryEventSink extends AbstractEncodingSink {
+  private final List<String> events = new ArrayList<>();
+
+  /** Instantiates a new Memory event sink. */
+  public MemoryEventSink() {
+    super(false);
+  }
+
+  @Override
+  public void start(List<String> regions) {}
+
+  @Override
+  protected void emit(EventEncoder encoder) {
+    String event = encoder.takeEvent();
+    synchronized (this.events) {
+      this.events.add(event);
+    }
+  }
+
+  /**
+   * Gets the events received so far.
+   *
+   * @return the JSON objects of the events
+   */
+  public List<String> getEvents() {
+    synchronized (this.events) {
+      return new ArrayList<>(this.events);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.simulator.sink;
+
+import java.util.List;
+
+/** The event sink discarding every event, to measure the simulation without logging. */
+public class NullEventSink extends AbstractEventSink {
+
+  @Override
+  public void start(List<String> regions) {}
+
+  @Override
+  public void addNode(int nodeId, int regionId) {}
+
+  @Override
+  public void addLink(long time, int beginNodeId, int endNodeId) {}
+
+  @Override
+  public void removeLink(long time, int beginNodeId, int endNodeId) {}
+
+  @Override
+  public void addBlock(long time, int nodeId, int blockId) {}
+
+  @Override
+  public void flowBlock(
+      long transmissionTime, long receptionTime, int beginNodeId, int endNodeId, int blockId) {}
+
+  @Override
+  public void json(String kind, String event) {}
+
+  @Override
+  public void simulationEnd(long time) {}
+}
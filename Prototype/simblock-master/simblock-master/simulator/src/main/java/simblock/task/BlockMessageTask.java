@@ -16,12 +16,13 @@
 
 package simblock.task;
 
-import static simblock.simulator.Main.OUT_JSON_FILE;
+import static simblock.settings.SimulationConfiguration.PARALLEL_THREADS;
 import static simblock.simulator.Network.getLatency;
 import static simblock.simulator.Timer.getCurrentTime;
 
 import simblock.block.Block;
 import simblock.node.Node;
+import simblock.simulator.sink.EventSinks;
 
 /** The type Block message task. */
 // Bitcoin protocol Wiki:
@@ -42,9 +43,27 @@ public class BlockMessageTask extends AbstractMessageTask {
    * @param delay the delay of the message transmission
    */
   public BlockMessageTask(Node from, Node to, Block block, long delay) {
+    this(from, to, getLatency(from.getRegion(), to.getRegion()) + delay, block);
+  }
+
+  private BlockMessageTask(Node from, Node to, long interval, Block block) {
     super(from, to);
     this.block = block;
-    this.interval = getLatency(this.getFrom().getRegion(), this.getTo().getRegion()) + delay;
+    this.interval = interval;
+  }
+
+  /**
+   * Instantiates a block message task whose interval has already been drawn, as when a process
+   * of a sharded simulation receives it from another one.
+   *
+   * @param from the sender
+   * @param to the receiver
+   * @param block the block instance
+   * @param interval the interval in milliseconds
+   * @return the block message task
+   */
+  public static BlockMessageTask withInterval(Node from, Node to, Block block, long interval) {
+    return new BlockMessageTask(from, to, interval, block);
   }
 
   @Override
@@ -55,24 +74,33 @@ public class BlockMessageTask extends AbstractMessageTask {
   /** Sends a new block message from the sender to the receiver and logs the event. */
   @Override
   public void run() {
+    // The parallel engine lets the sender know with a BlockSentTask
+    if (PARALLEL_THREADS == 0) {
+      this.getFrom().sendNextBlockMessage();
+    }
 
-    this.getFrom().sendNextBlockMessage();
-
-    OUT_JSON_FILE.print("{");
-    OUT_JSON_FILE.print("\"kind\":\"flow-block\",");
-    OUT_JSON_FILE.print("\"content\":{");
-    OUT_JSON_FILE.print("\"transmission-timestamp\":" + (getCurrentTime() - this.interval) + ",");
-    OUT_JSON_FILE.print("\"reception-timestamp\":" + getCurrentTime() + ",");
-    OUT_JSON_FILE.print("\"begin-node-id\":" + getFrom().getNodeID() + ",");
-    OUT_JSON_FILE.print("\"end-node-id\":" + getTo().getNodeID() + ",");
-    OUT_JSON_FILE.print("\"block-id\":" + block.getId());
-    OUT_JSON_FILE.print("}");
-    OUT_JSON_FILE.print("},");
-    OUT_JSON_FILE.flush();
+    printFlowBlock(getFrom(), getTo(), this.block, this.interval);
 
     super.run();
   }
 
+  /**
+   * Logs the transmission of a block, sent as either a block or a compact block message.
+   *
+   * @param from the sender
+   * @param to the receiver
+   * @param block the block
+   * @param interval the transmission delay in milliseconds
+   */
+  public static void printFlowBlock(Node from, Node to, Block block, long interval) {
+    EventSinks.printFlowBlock(
+        getCurrentTime() - interval,
+        getCurrentTime(),
+        from.getNodeID(),
+        to.getNodeID(),
+        block.getId());
+  }
+
   /**
    * Get block.
    *
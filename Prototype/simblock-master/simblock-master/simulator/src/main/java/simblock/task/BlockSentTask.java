@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.task;
+
+import simblock.node.Node;
+
+/**
+ * The type Block sent task lets a node send its next block message when the transmission of the
+ * current one ends. It is used by the {@link simblock.simulator.ParallelEngine}, where the receiver
+ * of the block message may be run by another partition than the sender.
+ */
+public class BlockSentTask implements Task {
+  /** The sending node. */
+  private final Node from;
+
+  /** The transmission delay in milliseconds. */
+  private final long interval;
+
+  /**
+   * Instantiates a new Block sent task.
+   *
+   * @param from the sender
+   * @param interval the transmission delay of the block message
+   */
+  public BlockSentTask(Node from, long interval) {
+    this.from = from;
+    this.interval = interval;
+  }
+
+  /**
+   * Gets the sending node.
+   *
+   * @return the <em>from</em> node
+   */
+  public Node getFrom() {
+    return this.from;
+  }
+
+  @Override
+  public long getInterval() {
+    return this.interval;
+  }
+
+  @Override
+  public void run() {
+    this.from.sendNextBlockMessage();
+  }
+}
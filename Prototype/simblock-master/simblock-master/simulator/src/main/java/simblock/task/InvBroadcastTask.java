@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.task;
+
+import static simblock.settings.NetworkConfiguration.REGION_LIST;
+import static simblock.simulator.Main.random;
+import static simblock.simulator.Network.getLatency;
+import static simblock.simulator.Timer.getCurrentTime;
+import static simblock.simulator.Timer.putTaskAbsoluteTime;
+
+import java.util.List;
+import simblock.block.Block;
+import simblock.node.Node;
+
+/**
+ * The type Inv broadcast task advertises a block to all neighbors of a node with a single queued
+ * task instead of one {@link InvMessageTask} per neighbor, rescheduling itself for each delivery in
+ * the order of arrival.
+ *
+ * <p>The deliveries are drawn lazily. The latencies to the neighbors of a region are independent
+ * and identically distributed, so their sorted values are drawn one at a time as descending order
+ * statistics of the uniform variate of {@link simblock.simulator.Network#getLatency(int, int,
+ * double)}, and each is given to a neighbor of the region picked at random among the ones not
+ * reached yet. Only the next arrival time of each region is held, and a bit per neighbor.
+ */
+public class InvBroadcastTask implements Task {
+  /** The sending node. */
+  private final Node from;
+
+  /** Block to be advertised. */
+  private final Block block;
+
+  /** The receivers, as listed when the block was advertised. */
+  private final List<Node> neighbors;
+
+  /** The time the block was advertised. */
+  private final long sendTime;
+
+  /** The neighbors reached so far, a bit per index in {@link #neighbors}. */
+  private final long[] reached;
+
+  /** The number of neighbors of each region not reached yet. */
+  private final int[] pending;
+
+  /** The uniform variate of the last arrival drawn for each region. */
+  private final double[] variates;
+
+  /** The next arrival time of each region, {@link Long#MAX_VALUE} once all its neighbors are. */
+  private final long[] arrivalTimes;
+
+  /** The region of the next delivery, -1 if there is none. */
+  private int next = -1;
+
+  /**
+   * Instantiates a new Inv broadcast task.
+   *
+   * @param from the sender
+   * @param neighbors the receivers, not modified while the task is scheduled
+   * @param block the block to be advertised
+   */
+  public InvBroadcastTask(Node from, List<Node> neighbors, Block block) {
+    this.from = from;
+    this.block = block;
+    this.neighbors = neighbors;
+    this.sendTime = getCurrentTime();
+    this.reached = new long[(neighbors.size() + 63) >>> 6];
+
+    int numRegions = REGION_LIST.size();
+    this.pending = new int[numRegions];
+    this.variates = new double[numRegions];
+    this.arrivalTimes = new long[numRegions];
+    for (Node neighbor : neighbors) {
+      this.pending[neighbor.getRegion()]++;
+    }
+    for (int region = 0; region < numRegions; region++) {
+      this.variates[region] = 1;
+      this.drawArrival(region);
+    }
+    this.findNext();
+  }
+
+  /**
+   * Draws the next arrival time of a region, the earliest of the ones of its pending neighbors.
+   * The largest of n uniform variates below u is distributed as u * V^(1/n) for a uniform V.
+   *
+   * @param region the region
+   */
+  private void drawArrival(int region) {
+    int count = this.pending[region];
+    if (count == 0) {
+      this.arrivalTimes[region] = Long.MAX_VALUE;
+      return;
+    }
+    this.variates[region] *= Math.pow(1 - random.nextDouble(), 1.0 / count);
+    // Same delay as InvMessageTask
+    this.arrivalTimes[region] =
+        this.sendTime + getLatency(this.from.getRegion(), region, this.variates[region]) + 10;
+  }
+
+  /** Finds the region of the next delivery, the first one at the earliest arrival time. */
+  private void findNext() {
+    this.next = -1;
+    for (int region = 0; region < this.arrivalTimes.length; region++) {
+      if (this.arrivalTimes[region] != Long.MAX_VALUE
+          && (this.next < 0 || this.arrivalTimes[region] < this.arrivalTimes[this.next])) {
+        this.next = region;
+      }
+    }
+  }
+
+  /**
+   * Picks a neighbor of a region not reached yet at random, and marks it as reached.
+   *
+   * @param region the region
+   * @return the neighbor
+   */
+  private Node pickNeighbor(int region) {
+    int rank = random.nextInt(this.pending[region]);
+    for (int i = 0; ; i++) {
+      Node neighbor = this.neighbors.get(i);
+      if ((this.reached[i >>> 6] & (1L << i)) == 0
+          && neighbor.getRegion() == region
+          && rank-- == 0) {
+        this.reached[i >>> 6] |= 1L << i;
+        this.pending[region]--;
+        return neighbor;
+      }
+    }
+  }
+
+  /** Schedules the first delivery. Does nothing if there are no receivers. */
+  public void schedule() {
+    if (this.next >= 0) {
+      putTaskAbsoluteTime(this, this.arrivalTimes[this.next]);
+    }
+  }
+
+  /**
+   * Gets the sending node.
+   *
+   * @return the <em>from</em> node
+   */
+  public Node getFrom() {
+    return this.from;
+  }
+
+  /**
+   * Gets block.
+   *
+   * @return the block
+   */
+  public Block getBlock() {
+    return this.block;
+  }
+
+  @Override
+  public long getInterval() {
+    if (this.next < 0) {
+      return 0;
+    }
+    return this.arrivalTimes[this.next] - getCurrentTime();
+  }
+
+  /** Delivers the advertisement due now and schedules the next one. */
+  @Override
+  public void run() {
+    int region = this.next;
+    Node to = this.pickNeighbor(region);
+    this.drawArrival(region);
+    this.findNext();
+    if (this.next >= 0) {
+      putTaskAbsoluteTime(this, this.arrivalTimes[this.next]);
+    }
+    to.receiveInv(this.from, this.block);
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.task;
+
+import java.math.BigInteger;
+import simblock.node.Node;
+import simblock.node.consensus.MiningSampler;
+
+/** The type Sampled mining task is the single mining task scheduled by the {@link MiningSampler}. */
+public class SampledMiningTask extends MiningTask {
+
+  /**
+   * Instantiates a new Sampled mining task. The task is scheduled at an absolute time, hence it has
+   * no interval.
+   *
+   * @param minter the minter
+   * @param difficulty the difficulty
+   */
+  public SampledMiningTask(Node minter, BigInteger difficulty) {
+    super(minter, 0, difficulty);
+  }
+
+  @Override
+  public void run() {
+    MiningSampler.getInstance().taskRun();
+    super.run();
+  }
+}
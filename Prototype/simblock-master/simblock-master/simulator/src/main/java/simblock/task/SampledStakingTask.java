@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Distributed Systems Group
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package simblock.task;
+
+import java.math.BigInteger;
+import simblock.node.Node;
+import simblock.node.consensus.StakingSampler;
+
+/**
+ * The type Sampled staking task is the single staking task scheduled by the {@link
+ * StakingSampler}.
+ */
+public class SampledStakingTask extends SampleStakingTask {
+
+  /**
+   * Instantiates a new Sampled staking task. The task is scheduled at an absolute time, hence it
+   * has no interval.
+   *
+   * @param minter the minter
+   * @param difficulty the difficulty
+   */
+  public SampledStakingTask(Node minter, BigInteger difficulty) {
+    super(minter, 0, difficulty);
+  }
+
+  @Override
+  public void run() {
+    StakingSampler.getInstance().taskRun();
+    super.run();
+  }
+}